@@ -0,0 +1,21 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * An integrator that can reconstruct the state anywhere inside the last step
+ * it took from the values it already computed, without evaluating the
+ * {@link XPSYS} again.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public interface DenseOutput {
+
+    /**
+     * @param theta
+     *            The fraction of the last step, 0 is its start and 1 its end
+     * @param out
+     *            Where the interpolated state is stored
+     */
+    public void interpolate(double theta, double[] out);
+
+}
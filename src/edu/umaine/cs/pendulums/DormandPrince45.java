@@ -0,0 +1,656 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * An embedded Runge-Kutta method of order 5(4) based on Dormand/Prince,
+ * Hairer/Norsett/Wanner, solving ordinary differential equations I, 1993. The
+ * step size is chosen automatically from the given absolute and relative
+ * tolerances using a PI controller, and steps with too large an error are
+ * rejected and retried. The last stage of an accepted step is reused as the
+ * first stage of the next one (FSAL), so an accepted step costs six
+ * evaluations of the {@link XPSYS}. This holds across calls too: the last
+ * derivative is kept as long as the state passed in is the one the previous
+ * call left behind, and {@link #invalidate()} drops it when the function
+ * itself has changed.
+ *
+ * <p>
+ * The continuous extension of Hairer/Norsett/Wanner provides the state
+ * anywhere inside the last step, which is used to find the times of
+ * {@link EventFunction}s to within a given tolerance however large the steps
+ * are.
+ * </p>
+ *
+ * <p>
+ * When used as a {@link Stepper} the <code>dt</code> passed in is the output
+ * interval and the largest step that will be taken; the interval is covered by
+ * as many internal steps as the tolerances require. A terminal event stops
+ * {@link #advanceTo(double[], double, double, double)} early, leaving the
+ * state just past the event and returning its time.
+ * </p>
+ *
+ * @author Mark Royer
+ */
+public class DormandPrince45 implements Stepper, DenseOutput {
+
+    private static final double A21 = 1 / 5.0;
+
+    private static final double A31 = 3 / 40.0, A32 = 9 / 40.0;
+
+    private static final double A41 = 44 / 45.0, A42 = -56 / 15.0,
+            A43 = 32 / 9.0;
+
+    private static final double A51 = 19372 / 6561.0, A52 = -25360 / 2187.0,
+            A53 = 64448 / 6561.0, A54 = -212 / 729.0;
+
+    private static final double A61 = 9017 / 3168.0, A62 = -355 / 33.0,
+            A63 = 46732 / 5247.0, A64 = 49 / 176.0, A65 = -5103 / 18656.0;
+
+    private static final double A71 = 35 / 384.0, A73 = 500 / 1113.0,
+            A74 = 125 / 192.0, A75 = -2187 / 6784.0, A76 = 11 / 84.0;
+
+    // Difference between the fifth and fourth order solutions
+
+    private static final double E1 = 71 / 57600.0, E3 = -71 / 16695.0,
+            E4 = 71 / 1920.0, E5 = -17253 / 339200.0, E6 = 22 / 525.0,
+            E7 = -1 / 40.0;
+
+    // Continuous extension
+
+    private static final double D1 = -12715105075.0 / 11282082432.0,
+            D3 = 87487479700.0 / 32700410799.0,
+            D4 = -10690763975.0 / 1880347072.0,
+            D5 = 701980252875.0 / 199316789632.0,
+            D6 = -1453857185.0 / 822651844.0, D7 = 69997945.0 / 29380423.0;
+
+    // Step size controller constants
+
+    private static final double SAFETY = 0.9;
+
+    private static final double MIN_FACTOR = 0.2;
+
+    private static final double MAX_FACTOR = 10;
+
+    private static final double BETA = 0.04;
+
+    private static final double ALPHA = 1 / 5.0 - 0.75 * BETA;
+
+    // Stiffness detection constants
+
+    /**
+     * h * lambda beyond which a step is limited by stability rather than
+     * accuracy
+     */
+    static final double STABILITY_LIMIT = 3.25;
+
+    private static final int STIFF_STEPS = 15;
+
+    private static final int NON_STIFF_STEPS = 6;
+
+    private XPSYS xpsysFunction;
+
+    private int numberOfVariables;
+
+    private double absoluteTolerance;
+
+    private double relativeTolerance;
+
+    private double[] k1, k2, k3, k4, k5, k6, k7;
+
+    private double[] y;
+
+    private double[] yNew;
+
+    /**
+     * The state <code>k1</code> holds the derivative at, if
+     * <code>fsalValid</code>
+     */
+    private double[] fsalState;
+
+    private boolean fsalValid;
+
+    /**
+     * Coefficients of the interpolant of the last accepted step, only
+     * computed when there are events
+     */
+    private double[] r1, r2, r3, r4, r5;
+
+    private EventLocator events;
+
+    private double[] eventState;
+
+    /**
+     * The step size to try next, 0 if it has not been estimated yet.
+     */
+    private double h;
+
+    /**
+     * The error of the last accepted step, used by the PI controller.
+     */
+    private double previousError = 1e-4;
+
+    private long acceptedSteps;
+
+    private long rejectedSteps;
+
+    private long evaluations;
+
+    /**
+     * h * lambda of the last accepted step, with lambda estimated from the
+     * last two stages
+     */
+    private double stiffness;
+
+    private int stiffSteps;
+
+    private int nonStiffSteps;
+
+    /**
+     * Create a new integrator for the given function.
+     *
+     * @param xpsysFunction
+     *            Functor of the problem to solve
+     * @param numberOfVariables
+     *            The length of the state arrays that will be stepped
+     * @param absoluteTolerance
+     *            Allowed absolute error per step, > 0
+     * @param relativeTolerance
+     *            Allowed relative error per step, >= 0
+     */
+    public DormandPrince45(XPSYS xpsysFunction, int numberOfVariables,
+            double absoluteTolerance, double relativeTolerance) {
+        assert absoluteTolerance > 0 : "requires: absoluteTolerance = "
+                + absoluteTolerance;
+        assert relativeTolerance >= 0 : "requires: relativeTolerance = "
+                + relativeTolerance;
+
+        this.xpsysFunction = xpsysFunction;
+        this.numberOfVariables = numberOfVariables;
+        this.absoluteTolerance = absoluteTolerance;
+        this.relativeTolerance = relativeTolerance;
+
+        k1 = new double[numberOfVariables];
+        k2 = new double[numberOfVariables];
+        k3 = new double[numberOfVariables];
+        k4 = new double[numberOfVariables];
+        k5 = new double[numberOfVariables];
+        k6 = new double[numberOfVariables];
+        k7 = new double[numberOfVariables];
+        y = new double[numberOfVariables];
+        yNew = new double[numberOfVariables];
+        fsalState = new double[numberOfVariables];
+
+        events = new EventLocator(numberOfVariables, 1e-12);
+    }
+
+    /**
+     * Watch for an event while integrating.
+     *
+     * @param event
+     *            The event to watch for
+     */
+    public void addEventFunction(EventFunction event) {
+        if (r1 == null) {
+            r1 = new double[numberOfVariables];
+            r2 = new double[numberOfVariables];
+            r3 = new double[numberOfVariables];
+            r4 = new double[numberOfVariables];
+            r5 = new double[numberOfVariables];
+            eventState = new double[numberOfVariables];
+        }
+        events.add(event);
+    }
+
+    /**
+     * @param event
+     *            The event to stop watching for
+     */
+    public void removeEventFunction(EventFunction event) {
+        events.remove(event);
+    }
+
+    /**
+     * @param timeTolerance
+     *            How precisely the times of events are found, 1e-12 by
+     *            default
+     */
+    public void setEventTolerance(double timeTolerance) {
+        events.setTimeTolerance(timeTolerance);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#step(double[], double)
+     */
+    public void step(double[] x, double dt) {
+        advanceTo(x, 0, dt, dt);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#stepN(double[], double, int)
+     */
+    public void stepN(double[] x, double dt, int n) {
+        advanceTo(x, 0, dt * n, dt);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#advanceTo(double[], double, double,
+     *      double)
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt) {
+
+        if (time >= endTime) {
+            return endTime;
+        }
+
+        if (!fsalValid || !isFsalState(x)) {
+            evaluate(x, k1);
+        }
+        fsalValid = false;
+
+        boolean watching = !events.isEmpty();
+        if (watching) {
+            events.start(x);
+        }
+
+        if (h <= 0) {
+            h = initialStepSize(x);
+        }
+
+        boolean lastRejected = false;
+
+        while (time < endTime) {
+
+            double step = Math.min(Math.min(h, dt), endTime - time);
+            boolean last = step == endTime - time;
+
+            double error = attemptStep(x, step);
+
+            if (error <= 1) {
+
+                double factor = lastRejected ? Math.min(1, controllerFactor(
+                        error)) : controllerFactor(error);
+
+                // Don't let a step shortened to hit dt or the end time
+                // shrink the estimate for the following steps.
+                h = step < h ? Math.max(h, step * factor) : step * factor;
+                previousError = Math.max(error, 1e-4);
+                lastRejected = false;
+                acceptedSteps++;
+
+                detectStiffness(step);
+
+                if (watching) {
+                    prepareInterpolant(x, step);
+
+                    double theta = events.check(this, step, yNew, eventState);
+                    if (!Double.isNaN(theta)) {
+                        // k1 is not the derivative at the event state
+                        System.arraycopy(eventState, 0, x, 0,
+                                numberOfVariables);
+                        return time + theta * step;
+                    }
+                }
+
+                System.arraycopy(yNew, 0, x, 0, numberOfVariables);
+
+                // First same as last
+                double[] tmp = k1;
+                k1 = k7;
+                k7 = tmp;
+
+                time = last ? endTime : time + step;
+
+            } else {
+
+                if (Double.isNaN(error)) {
+                    h = step * MIN_FACTOR;
+                } else {
+                    h = step
+                            * Math.max(MIN_FACTOR, SAFETY
+                                    * Math.pow(error, -ALPHA));
+                }
+                lastRejected = true;
+                rejectedSteps++;
+
+                if (time + h == time) {
+                    throw new IllegalStateException(
+                            "Step size underflow at time " + time);
+                }
+            }
+        }
+
+        System.arraycopy(x, 0, fsalState, 0, numberOfVariables);
+        fsalValid = true;
+
+        return endTime;
+    }
+
+    /**
+     * @param x
+     *            The values passed in
+     * @return true iff the values are the ones the last call ended with
+     */
+    private boolean isFsalState(double[] x) {
+        for (int i = 0; i < numberOfVariables; i++) {
+            if (x[i] != fsalState[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#invalidate()
+     */
+    public void invalidate() {
+        fsalValid = false;
+    }
+
+    /**
+     * Compute a trial step of size <code>step</code> from <code>x</code>,
+     * leaving the result in <code>yNew</code> and the derivative there in
+     * <code>k7</code>. The derivative at <code>x</code> must already be in
+     * <code>k1</code>.
+     *
+     * @param x
+     *            The current values
+     * @param step
+     *            The step size to try
+     * @return The scaled error norm of the step, <= 1 if acceptable
+     */
+    private double attemptStep(double[] x, double step) {
+
+        int n = numberOfVariables;
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i] + step * A21 * k1[i];
+        }
+        evaluate(y, k2);
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i] + step * (A31 * k1[i] + A32 * k2[i]);
+        }
+        evaluate(y, k3);
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i] + step * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+        }
+        evaluate(y, k4);
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i]
+                    + step
+                    * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+        }
+        evaluate(y, k5);
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i]
+                    + step
+                    * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65
+                            * k5[i]);
+        }
+        evaluate(y, k6);
+
+        for (int i = 0; i < n; i++) {
+            yNew[i] = x[i]
+                    + step
+                    * (A71 * k1[i] + A73 * k3[i] + A74 * k4[i] + A75 * k5[i] + A76
+                            * k6[i]);
+        }
+        evaluate(yNew, k7);
+
+        double sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            double e = step
+                    * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6
+                            * k6[i] + E7 * k7[i]);
+            double scale = absoluteTolerance + relativeTolerance
+                    * Math.max(Math.abs(x[i]), Math.abs(yNew[i]));
+            double r = e / scale;
+            sum += r * r;
+        }
+
+        return Math.sqrt(sum / n);
+    }
+
+    /**
+     * Estimate h * lambda for the step that was just accepted from the last
+     * two stages, which are evaluated at the same time (Hairer/Wanner,
+     * solving ordinary differential equations II, section IV.2). The problem
+     * is considered stiff after {@value #STIFF_STEPS} steps in a row that
+     * were limited by stability, until {@value #NON_STIFF_STEPS} in a row
+     * that weren't.
+     *
+     * @param step
+     *            The length of the step
+     */
+    private void detectStiffness(double step) {
+
+        double num = 0, den = 0;
+
+        // y still holds the input of the sixth stage
+        for (int i = 0; i < numberOfVariables; i++) {
+            double dk = k7[i] - k6[i];
+            double dy = yNew[i] - y[i];
+            num += dk * dk;
+            den += dy * dy;
+        }
+
+        stiffness = den > 0 ? step * Math.sqrt(num / den) : 0;
+
+        if (stiffness > STABILITY_LIMIT) {
+            nonStiffSteps = 0;
+            stiffSteps++;
+        } else {
+            nonStiffSteps++;
+            if (nonStiffSteps >= NON_STIFF_STEPS) {
+                stiffSteps = 0;
+            }
+        }
+    }
+
+    /**
+     * Compute the coefficients of the continuous extension of the step that
+     * was just accepted. <code>k7</code> must still hold the derivative at
+     * the end of the step.
+     *
+     * @param x
+     *            The values at the start of the step
+     * @param step
+     *            The length of the step
+     */
+    private void prepareInterpolant(double[] x, double step) {
+        for (int i = 0; i < numberOfVariables; i++) {
+            double diff = yNew[i] - x[i];
+            double bspl = step * k1[i] - diff;
+            r1[i] = x[i];
+            r2[i] = diff;
+            r3[i] = bspl;
+            r4[i] = diff - step * k7[i] - bspl;
+            r5[i] = step
+                    * (D1 * k1[i] + D3 * k3[i] + D4 * k4[i] + D5 * k5[i] + D6
+                            * k6[i] + D7 * k7[i]);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.DenseOutput#interpolate(double, double[])
+     */
+    public void interpolate(double theta, double[] out) {
+        double theta1 = 1 - theta;
+        for (int i = 0; i < numberOfVariables; i++) {
+            out[i] = r1[i]
+                    + theta
+                    * (r2[i] + theta1
+                            * (r3[i] + theta * (r4[i] + theta1 * r5[i])));
+        }
+    }
+
+    /**
+     * @param error
+     *            The scaled error of the step that was just accepted
+     * @return The factor to multiply the step size by
+     */
+    private double controllerFactor(double error) {
+        if (error == 0) {
+            return MAX_FACTOR;
+        }
+        double factor = SAFETY * Math.pow(error, -ALPHA)
+                * Math.pow(previousError, BETA);
+        return Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+    }
+
+    /**
+     * Estimate a starting step size. The derivative at <code>x</code> must
+     * already be in <code>k1</code>.
+     *
+     * @param x
+     *            The initial values
+     * @return A step size to try first
+     */
+    private double initialStepSize(double[] x) {
+
+        int n = numberOfVariables;
+        double d0 = 0, d1 = 0;
+
+        for (int i = 0; i < n; i++) {
+            double scale = absoluteTolerance + relativeTolerance
+                    * Math.abs(x[i]);
+            d0 += (x[i] / scale) * (x[i] / scale);
+            d1 += (k1[i] / scale) * (k1[i] / scale);
+        }
+        d0 = Math.sqrt(d0 / n);
+        d1 = Math.sqrt(d1 / n);
+
+        double h0 = (d0 < 1e-5 || d1 < 1e-5) ? 1e-6 : 0.01 * d0 / d1;
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i] + h0 * k1[i];
+        }
+        evaluate(y, k2);
+
+        double d2 = 0;
+        for (int i = 0; i < n; i++) {
+            double scale = absoluteTolerance + relativeTolerance
+                    * Math.abs(x[i]);
+            double r = (k2[i] - k1[i]) / scale;
+            d2 += r * r;
+        }
+        d2 = Math.sqrt(d2 / n) / h0;
+
+        double h1;
+        if (Math.max(d1, d2) <= 1e-15) {
+            h1 = Math.max(1e-6, h0 * 1e-3);
+        } else {
+            h1 = Math.pow(0.01 / Math.max(d1, d2), 1 / 5.0);
+        }
+
+        return Math.min(100 * h0, h1);
+    }
+
+    /**
+     * Evaluate the function and count the evaluation.
+     *
+     * @param x
+     *            The values to evaluate at
+     * @param f
+     *            Where the derivatives are stored
+     */
+    private void evaluate(double[] x, double[] f) {
+        xpsysFunction.xpsys(x, f);
+        evaluations++;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#getNumberOfVariables()
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    /**
+     * @return The step size that will be tried next, 0 if no step has been
+     *         taken
+     */
+    public double getStepSize() {
+        return h;
+    }
+
+    /**
+     * @return h * lambda of the last accepted step, where lambda estimates
+     *         the dominant eigenvalue of the Jacobian
+     */
+    public double getStiffnessEstimate() {
+        return stiffness;
+    }
+
+    /**
+     * @return true iff the recent steps have been limited by stability
+     *         rather than accuracy, so an implicit method would be cheaper
+     */
+    public boolean isStiff() {
+        return stiffSteps >= STIFF_STEPS;
+    }
+
+    /**
+     * @return The number of steps that met the tolerances
+     */
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    /**
+     * @return The number of steps that were thrown away and retried with a
+     *         smaller step size
+     */
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    /**
+     * @return The number of times the function has been evaluated
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Set the step, evaluation counters, the stiffness detection and the
+     * step size estimate back to zero.
+     */
+    public void reset() {
+        stiffness = 0;
+        stiffSteps = 0;
+        nonStiffSteps = 0;
+        acceptedSteps = 0;
+        rejectedSteps = 0;
+        evaluations = 0;
+        previousError = 1e-4;
+        h = 0;
+        fsalValid = false;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "accepted:" + acceptedSteps + "," + " rejected:"
+                + rejectedSteps + "," + " evaluations:" + evaluations;
+    }
+
+}
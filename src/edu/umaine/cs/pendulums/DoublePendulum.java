@@ -11,7 +11,7 @@ import javax.media.j3d.BranchGroup;
  * @author Mark Royer
  * 
  */
-public class DoublePendulum {
+public class DoublePendulum implements DoublePendulumView {
 
     /**
      * The inner pendulum
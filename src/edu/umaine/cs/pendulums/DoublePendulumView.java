@@ -0,0 +1,43 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Something that shows a double pendulum. The models only ever set values on
+ * a view and never read them back, so they can be run without one, and
+ * without Java3D.
+ *
+ * @author Mark Royer
+ *
+ */
+public interface DoublePendulumView {
+
+    /**
+     * Sets the inner pendulum's rod length.
+     *
+     * @param length
+     */
+    public void setTopRodLength(double length);
+
+    /**
+     * Sets the outer pendulum's rod length.
+     *
+     * @param length
+     */
+    public void setBottomRodLength(double length);
+
+    /**
+     * Sets the inner pendulum's angle.
+     *
+     * @param angle
+     *            radians
+     */
+    public void setTopRodAngle(double angle);
+
+    /**
+     * Sets the outer pendulum's angle.
+     *
+     * @param angle
+     *            radians
+     */
+    public void setBottomRodAngle(double angle);
+
+}
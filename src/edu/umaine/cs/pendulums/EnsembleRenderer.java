@@ -0,0 +1,327 @@
+package edu.umaine.cs.pendulums;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Frame;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.Behavior;
+import javax.media.j3d.BoundingSphere;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.Canvas3D;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.GeometryUpdater;
+import javax.media.j3d.LineArray;
+import javax.media.j3d.PointArray;
+import javax.media.j3d.PointAttributes;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransparencyAttributes;
+import javax.media.j3d.WakeupOnElapsedFrames;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import com.sun.j3d.utils.behaviors.vp.OrbitBehavior;
+import com.sun.j3d.utils.universe.SimpleUniverse;
+
+/**
+ * Draws every member of a {@link PendulumEnsemble} with just two shapes: all
+ * of the rods are a single {@link LineArray} and all of the masses a single
+ * {@link PointArray}. Both use geometry by reference, so their coordinates
+ * are plain float arrays that are refilled from the ensemble's state once per
+ * rendered frame through a {@link GeometryUpdater}, however many members
+ * there are. A {@link Pendulum} per member would need several transform
+ * groups, a cylinder and a sphere each.
+ *
+ * <p>
+ * The ensemble may be stepped in another thread while it is drawn. Each
+ * member is drawn from whatever state it has when the frame is built, so
+ * members may be a step apart from one another.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class EnsembleRenderer implements GeometryUpdater {
+
+    /**
+     * The size of the points the masses are drawn with (pixels)
+     */
+    static final float MASS_SIZE = 4;
+
+    private PendulumEnsemble ensemble;
+
+    /**
+     * Each member's two rods, pivot to inner mass and inner mass to outer
+     * mass, as x, y, z triples
+     */
+    private float[] rodCoordinates;
+
+    /**
+     * Each member's inner and outer mass as x, y, z triples
+     */
+    private float[] massCoordinates;
+
+    private LineArray rods;
+
+    private PointArray masses;
+
+    private double[] positions = new double[4];
+
+    private BranchGroup branchGroup;
+
+    /**
+     * Create the shapes for an ensemble.
+     *
+     * @param ensemble
+     *            The pendulums to draw
+     */
+    public EnsembleRenderer(PendulumEnsemble ensemble) {
+        this.ensemble = ensemble;
+
+        int size = ensemble.size();
+
+        rodCoordinates = new float[4 * 3 * size];
+        massCoordinates = new float[2 * 3 * size];
+
+        rods = new LineArray(4 * size, GeometryArray.COORDINATES
+                | GeometryArray.COLOR_3 | GeometryArray.BY_REFERENCE);
+        rods.setCapability(GeometryArray.ALLOW_REF_DATA_WRITE);
+        rods.setCoordRefFloat(rodCoordinates);
+        rods.setColorRefFloat(colors(size, 4, 0.6f));
+
+        masses = new PointArray(2 * size, GeometryArray.COORDINATES
+                | GeometryArray.COLOR_3 | GeometryArray.BY_REFERENCE);
+        masses.setCapability(GeometryArray.ALLOW_REF_DATA_WRITE);
+        masses.setCoordRefFloat(massCoordinates);
+        masses.setColorRefFloat(colors(size, 2, 1));
+
+        // Blend the rods so a dense ensemble shows where most members are
+        Appearance rodAppearance = new Appearance();
+        rodAppearance.setTransparencyAttributes(new TransparencyAttributes(
+                TransparencyAttributes.BLENDED, 0.5f));
+
+        Appearance massAppearance = new Appearance();
+        massAppearance.setPointAttributes(new PointAttributes(MASS_SIZE, true));
+
+        // The geometry changes every frame, so don't recompute the bounds
+        BoundingSphere bounds = new BoundingSphere(new Point3d(0, 0, 0), 100);
+
+        Shape3D rodShape = new Shape3D(rods, rodAppearance);
+        rodShape.setBoundsAutoCompute(false);
+        rodShape.setBounds(bounds);
+
+        Shape3D massShape = new Shape3D(masses, massAppearance);
+        massShape.setBoundsAutoCompute(false);
+        massShape.setBounds(bounds);
+
+        FrameBehavior frameBehavior = new FrameBehavior();
+        frameBehavior.setSchedulingBounds(bounds);
+
+        branchGroup = new BranchGroup();
+        branchGroup.setCapability(BranchGroup.ALLOW_DETACH);
+        branchGroup.addChild(rodShape);
+        branchGroup.addChild(massShape);
+        branchGroup.addChild(frameBehavior);
+
+        updateData(rods);
+        updateData(masses);
+    }
+
+    /**
+     * Give each member its own hue, so members that started close together
+     * can be followed as they separate.
+     *
+     * @param size
+     *            The number of members
+     * @param vertices
+     *            The number of vertices per member
+     * @param brightness
+     *            The brightness of the colors, 0 to 1
+     * @return The r, g, b triples of every vertex
+     */
+    private static float[] colors(int size, int vertices, float brightness) {
+
+        float[] colors = new float[3 * vertices * size];
+
+        for (int member = 0; member < size; member++) {
+
+            Color color = Color.getHSBColor((float) member / size, 0.8f,
+                    brightness);
+            float[] rgb = color.getRGBColorComponents(null);
+
+            for (int v = 0; v < vertices; v++) {
+                System.arraycopy(rgb, 0, colors, 3 * (vertices * member + v), 3);
+            }
+        }
+
+        return colors;
+    }
+
+    /**
+     * Refill the coordinates of the rods from the ensemble's state, or those
+     * of the masses from the rods. Only called by Java3D, from inside
+     * {@link GeometryArray#updateData(GeometryUpdater)}.
+     *
+     * @see javax.media.j3d.GeometryUpdater#updateData(javax.media.j3d.Geometry)
+     */
+    public void updateData(Geometry geometry) {
+
+        int size = ensemble.size();
+
+        if (geometry == rods) {
+
+            for (int member = 0; member < size; member++) {
+
+                ensemble.positions(member, positions);
+
+                // The pivot stays at the origin
+                int i = 12 * member;
+                rodCoordinates[i + 3] = (float) positions[0];
+                rodCoordinates[i + 4] = (float) positions[1];
+                rodCoordinates[i + 6] = (float) positions[0];
+                rodCoordinates[i + 7] = (float) positions[1];
+                rodCoordinates[i + 9] = (float) positions[2];
+                rodCoordinates[i + 10] = (float) positions[3];
+            }
+
+        } else if (geometry == masses) {
+
+            for (int member = 0; member < size; member++) {
+                System.arraycopy(rodCoordinates, 12 * member + 6,
+                        massCoordinates, 6 * member, 6);
+            }
+        }
+    }
+
+    /**
+     * @return The branch holding the rods, the masses and the behavior that
+     *         updates them
+     */
+    public BranchGroup getBG() {
+        return branchGroup;
+    }
+
+    /**
+     * @return The ensemble being drawn
+     */
+    public PendulumEnsemble getEnsemble() {
+        return ensemble;
+    }
+
+    /**
+     * Updates the geometry once per rendered frame.
+     */
+    private class FrameBehavior extends Behavior {
+
+        private WakeupOnElapsedFrames everyFrame = new WakeupOnElapsedFrames(
+                0);
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.media.j3d.Behavior#initialize()
+         */
+        @Override
+        public void initialize() {
+            wakeupOn(everyFrame);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.media.j3d.Behavior#processStimulus(java.util.Enumeration)
+         */
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void processStimulus(Enumeration criteria) {
+            rods.updateData(EnsembleRenderer.this);
+            masses.updateData(EnsembleRenderer.this);
+            wakeupOn(everyFrame);
+        }
+    }
+
+    /**
+     * Watch an ensemble of double pendulums that start a tiny angle apart
+     * spread out, stepped in real time in a thread of its own.
+     *
+     * @param args
+     *            [size [spread in degrees]]
+     */
+    public static void main(String[] args) {
+
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        double spread = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+
+        final PendulumEnsemble ensemble = new SimpleDoublePendulumEnsemble(
+                size);
+        for (int member = 0; member < size; member++) {
+            ensemble.setMember(member, new InitValues(120 + spread * member
+                    / size, 120, 5, 5, 1, 1, 0, 0));
+        }
+
+        EnsembleRenderer renderer = new EnsembleRenderer(ensemble);
+
+        Canvas3D canvas = new Canvas3D(SimpleUniverse
+                .getPreferredConfiguration());
+        final SimpleUniverse universe = new SimpleUniverse(canvas);
+
+        OrbitBehavior orbit = new OrbitBehavior(canvas,
+                OrbitBehavior.REVERSE_ROTATE);
+        orbit.setSchedulingBounds(new BoundingSphere(new Point3d(0, 0, 0),
+                200));
+        Transform3D home = new Transform3D();
+        home.set(new Vector3d(0, 0, 30));
+        orbit.setHomeTransform(home);
+        orbit.goHome();
+        universe.getViewingPlatform().setViewPlatformBehavior(orbit);
+        universe.getViewer().getView().setBackClipDistance(100);
+
+        universe.addBranchGraph(renderer.getBG());
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        final Thread stepping = new Thread(new Runnable() {
+
+            public void run() {
+
+                EnsembleStepper stepper = new EnsembleStepper(ensemble);
+                RealTimePacer pacer = new RealTimePacer(0.001, 1);
+
+                while (running.get()) {
+                    int due = pacer.stepsDue();
+                    stepper.stepN(0.001, due);
+                    pacer.stepped(due);
+                    pacer.waitForNextStep();
+                }
+            }
+        });
+        stepping.setDaemon(true);
+        stepping.start();
+
+        Frame frame = new Frame("Pendulum Ensemble (" + size + " members)");
+        frame.setLayout(new BorderLayout());
+        frame.add(canvas, BorderLayout.CENTER);
+        frame.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                running.set(false);
+                try {
+                    stepping.join(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                universe.cleanup();
+                System.exit(0);
+            }
+        });
+        frame.setSize(660, 660);
+        frame.setLocationRelativeTo(null);
+        frame.setVisible(true);
+    }
+
+}
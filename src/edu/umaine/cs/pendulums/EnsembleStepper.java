@@ -0,0 +1,188 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Runge-Kutta Method of order 4 for a {@link PendulumEnsemble}. Members are
+ * stepped in blocks small enough that all four stages of a block stay in the
+ * cache, and all scratch space is allocated when the stepper is created.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class EnsembleStepper {
+
+    /**
+     * The number of members stepped through all four stages at a time.
+     */
+    static final int BLOCK = 256;
+
+    private PendulumEnsemble ensemble;
+
+    private double[][] y;
+
+    private double[][] f;
+
+    private double[][] sum;
+
+    /**
+     * Create a stepper for the given ensemble.
+     * 
+     * @param ensemble
+     *            The pendulums to step
+     */
+    public EnsembleStepper(PendulumEnsemble ensemble) {
+        this.ensemble = ensemble;
+
+        int n = ensemble.getNumberOfVariables();
+        int size = ensemble.size();
+
+        y = new double[n][size];
+        f = new double[n][size];
+        sum = new double[n][size];
+    }
+
+    /**
+     * Advance every member by a single time step.
+     * 
+     * @param dt
+     *            The time step
+     */
+    public void step(double dt) {
+        step(dt, 0, ensemble.size());
+        ensemble.setTime(ensemble.getTime() + dt);
+    }
+
+    /**
+     * Advance every member by <code>n</code> time steps.
+     * 
+     * @param dt
+     *            The time step
+     * @param n
+     *            The number of steps
+     */
+    public void stepN(double dt, int n) {
+        stepN(dt, n, 0, ensemble.size());
+        ensemble.setTime(ensemble.getTime() + dt * n);
+    }
+
+    /**
+     * Advance every member to the given time using steps no larger than
+     * <code>dt</code>.
+     * 
+     * @param endTime
+     *            The time to advance to
+     * @param dt
+     *            The largest time step
+     */
+    public void advanceTo(double endTime, double dt) {
+        double time = ensemble.getTime();
+        if (time >= endTime) {
+            return;
+        }
+        int n = (int) Math.ceil((endTime - time) / dt);
+        stepN((endTime - time) / n, n, 0, ensemble.size());
+        ensemble.setTime(endTime);
+    }
+
+    /**
+     * Advance the members in [from, to) by <code>n</code> time steps. The
+     * ensemble's time is not changed, so that disjoint ranges can be stepped
+     * independently, and each block of members is taken through all of its
+     * steps before moving on to the next.
+     * 
+     * @param dt
+     *            The time step
+     * @param n
+     *            The number of steps
+     * @param from
+     *            The first member, inclusive
+     * @param to
+     *            The last member, exclusive
+     */
+    public void stepN(double dt, int n, int from, int to) {
+        for (int start = from; start < to; start += BLOCK) {
+            int end = Math.min(start + BLOCK, to);
+            for (int k = 0; k < n; k++) {
+                stepBlock(dt, start, end);
+            }
+        }
+    }
+
+    /**
+     * Advance the members in [from, to) by a single time step without
+     * changing the ensemble's time.
+     * 
+     * @param dt
+     *            The time step
+     * @param from
+     *            The first member, inclusive
+     * @param to
+     *            The last member, exclusive
+     */
+    public void step(double dt, int from, int to) {
+        stepN(dt, 1, from, to);
+    }
+
+    /**
+     * One RK4 step of a block of members that fits in the cache.
+     * 
+     * @param dt
+     *            The time step
+     * @param from
+     *            The first member, inclusive
+     * @param to
+     *            The last member, exclusive
+     */
+    private void stepBlock(double dt, int from, int to) {
+
+        double[][] x = ensemble.getState();
+        int n = x.length;
+        double dt2 = .5 * dt;
+
+        ensemble.derivatives(x, f, from, to);
+
+        for (int v = 0; v < n; v++) {
+            double[] xv = x[v], yv = y[v], fv = f[v], sv = sum[v];
+            for (int i = from; i < to; i++) {
+                sv[i] = fv[i];
+                yv[i] = xv[i] + dt2 * fv[i];
+            }
+        }
+
+        ensemble.derivatives(y, f, from, to);
+
+        for (int v = 0; v < n; v++) {
+            double[] xv = x[v], yv = y[v], fv = f[v], sv = sum[v];
+            for (int i = from; i < to; i++) {
+                sv[i] += 2.0 * fv[i];
+                yv[i] = xv[i] + dt2 * fv[i];
+            }
+        }
+
+        ensemble.derivatives(y, f, from, to);
+
+        for (int v = 0; v < n; v++) {
+            double[] xv = x[v], yv = y[v], fv = f[v], sv = sum[v];
+            for (int i = from; i < to; i++) {
+                sv[i] += 2.0 * fv[i];
+                yv[i] = xv[i] + dt * fv[i];
+            }
+        }
+
+        ensemble.derivatives(y, f, from, to);
+
+        for (int v = 0; v < n; v++) {
+            double[] xv = x[v], fv = f[v], sv = sum[v];
+            for (int i = from; i < to; i++) {
+                xv[i] += dt * (sv[i] + fv[i]) / 6.0;
+            }
+        }
+    }
+
+    /**
+     * @return The ensemble being stepped
+     */
+    public PendulumEnsemble getEnsemble() {
+        return ensemble;
+    }
+
+}
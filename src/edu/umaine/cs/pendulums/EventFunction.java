@@ -0,0 +1,54 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Something to watch for while integrating, such as a rod crossing the
+ * vertical or flipping over the top. The event happens when the switching
+ * function g crosses zero.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public interface EventFunction {
+
+    /**
+     * Only report crossings where g goes from negative to positive
+     */
+    public static final int RISING = 1;
+
+    /**
+     * Only report crossings where g goes from positive to negative
+     */
+    public static final int FALLING = -1;
+
+    /**
+     * Report crossings in either direction
+     */
+    public static final int ANY = 0;
+
+    /**
+     * @param x
+     *            The state, with the time in x[0]
+     * @return The value of the switching function, which is zero at the event
+     */
+    public double g(double[] x);
+
+    /**
+     * @return {@link #RISING}, {@link #FALLING} or {@link #ANY}
+     */
+    public int getDirection();
+
+    /**
+     * @return true iff the integration should stop at this event
+     */
+    public boolean isTerminal();
+
+    /**
+     * Called with the state at the event, in the order the events happen.
+     * 
+     * @param x
+     *            The state at the event, with the time in x[0]. The array is
+     *            reused, so copy anything that has to be kept.
+     */
+    public void eventOccurred(double[] x);
+
+}
@@ -0,0 +1,251 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the zero crossings of a set of {@link EventFunction}s inside the
+ * steps of an integrator. After each step the switching functions are
+ * compared with their values at the start of the step and any sign change is
+ * narrowed down with the Illinois variant of regula falsi on the integrator's
+ * {@link DenseOutput}, so locating an event costs no evaluations of the
+ * {@link XPSYS}. At most one crossing of each function is found per step.
+ *
+ * @author Mark Royer
+ *
+ */
+public class EventLocator {
+
+    /**
+     * The most iterations spent narrowing down a single crossing
+     */
+    static final int MAX_ITERATIONS = 100;
+
+    private List<EventFunction> events = new ArrayList<EventFunction>();
+
+    private int numberOfVariables;
+
+    /**
+     * How precisely the time of an event is found
+     */
+    private double timeTolerance;
+
+    /**
+     * The value of each switching function at the start of the step
+     */
+    private double[] g = new double[0];
+
+    /**
+     * The step fraction each function crossed zero at in the current step,
+     * NaN if it didn't
+     */
+    private double[] theta = new double[0];
+
+    private double[] scratch;
+
+    /**
+     * @param numberOfVariables
+     *            The length of the state arrays
+     * @param timeTolerance
+     *            How precisely the time of an event is found, > 0
+     */
+    public EventLocator(int numberOfVariables, double timeTolerance) {
+        assert timeTolerance > 0 : "requires: timeTolerance = "
+                + timeTolerance;
+
+        this.numberOfVariables = numberOfVariables;
+        this.timeTolerance = timeTolerance;
+        this.scratch = new double[numberOfVariables];
+    }
+
+    /**
+     * @param event
+     *            The event to watch for
+     */
+    public void add(EventFunction event) {
+        events.add(event);
+        g = new double[events.size()];
+        theta = new double[events.size()];
+    }
+
+    /**
+     * @param event
+     *            The event to stop watching for
+     */
+    public void remove(EventFunction event) {
+        events.remove(event);
+        g = new double[events.size()];
+        theta = new double[events.size()];
+    }
+
+    /**
+     * @return true iff there are no events to watch for
+     */
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * Evaluate the switching functions at the start of the integration.
+     *
+     * @param x
+     *            The initial state
+     */
+    public void start(double[] x) {
+        for (int i = 0; i < g.length; i++) {
+            g[i] = events.get(i).g(x);
+        }
+    }
+
+    /**
+     * Look for events in the step that was just taken and report them in the
+     * order they happened, stopping at the first terminal one. The time of an
+     * event is the end of the narrowed bracket, so the reported state is
+     * always just past the crossing and the same crossing is not found again
+     * when the integration is restarted from there.
+     *
+     * @param dense
+     *            The interpolant of the step
+     * @param stepSize
+     *            The length of the step
+     * @param x
+     *            The state at the end of the step
+     * @param out
+     *            Where the state at a terminal event is stored
+     * @return The fraction of the step a terminal event happened at, or NaN
+     *         if the integration can carry on
+     */
+    public double check(DenseOutput dense, double stepSize, double[] x,
+            double[] out) {
+
+        int found = 0;
+
+        for (int i = 0; i < g.length; i++) {
+
+            EventFunction event = events.get(i);
+            double g1 = event.g(x);
+
+            theta[i] = Double.NaN;
+
+            if (crosses(event.getDirection(), g[i], g1)) {
+                theta[i] = locate(event, dense, stepSize, g[i], g1);
+                found++;
+            } else {
+                g[i] = g1;
+            }
+        }
+
+        // Report the crossings in time order
+        for (; found > 0; found--) {
+
+            int first = -1;
+            for (int i = 0; i < theta.length; i++) {
+                if (!Double.isNaN(theta[i])
+                        && (first < 0 || theta[i] < theta[first])) {
+                    first = i;
+                }
+            }
+
+            double t = theta[first];
+            theta[first] = Double.NaN;
+
+            EventFunction event = events.get(first);
+
+            dense.interpolate(t, out);
+            event.eventOccurred(out);
+
+            if (event.isTerminal()) {
+                // The listener may have changed out, and every function
+                // restarts from the event
+                dense.interpolate(t, out);
+                for (int i = 0; i < g.length; i++) {
+                    g[i] = events.get(i).g(out);
+                }
+                return t;
+            }
+
+            // The crossing is behind us, so the value at the end is next
+            g[first] = events.get(first).g(x);
+        }
+
+        return Double.NaN;
+    }
+
+    /**
+     * @return true iff going from g0 to g1 is a crossing in the given
+     *         direction
+     */
+    private static boolean crosses(int direction, double g0, double g1) {
+        boolean rising = g0 < 0 && g1 >= 0;
+        boolean falling = g0 > 0 && g1 <= 0;
+        return direction == EventFunction.RISING ? rising
+                : direction == EventFunction.FALLING ? falling : rising
+                        || falling;
+    }
+
+    /**
+     * Narrow the crossing down with the Illinois algorithm.
+     *
+     * @return The fraction of the step just past the crossing
+     */
+    private double locate(EventFunction event, DenseOutput dense,
+            double stepSize, double ga, double gb) {
+
+        double a = 0, b = 1;
+        double tolerance = timeTolerance / Math.abs(stepSize);
+        int side = 0;
+
+        for (int i = 0; i < MAX_ITERATIONS && b - a > tolerance; i++) {
+
+            double c = (a * gb - b * ga) / (gb - ga);
+
+            // Keep the new point strictly inside the bracket
+            c = Math.max(a + 0.5 * tolerance, Math.min(b - 0.5 * tolerance,
+                    c));
+
+            dense.interpolate(c, scratch);
+            double gc = event.g(scratch);
+
+            if (gc == 0) {
+                return c;
+            }
+
+            if ((gc > 0) == (gb > 0)) {
+                b = c;
+                gb = gc;
+                if (side == 1) {
+                    ga *= 0.5;
+                }
+                side = 1;
+            } else {
+                a = c;
+                ga = gc;
+                if (side == -1) {
+                    gb *= 0.5;
+                }
+                side = -1;
+            }
+        }
+
+        return b;
+    }
+
+    /**
+     * @param timeTolerance
+     *            How precisely the time of an event is found, > 0
+     */
+    public void setTimeTolerance(double timeTolerance) {
+        assert timeTolerance > 0 : "requires: timeTolerance = "
+                + timeTolerance;
+
+        this.timeTolerance = timeTolerance;
+    }
+
+    /**
+     * @return The length of the state arrays
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+}
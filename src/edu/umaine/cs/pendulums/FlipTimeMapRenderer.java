@@ -0,0 +1,484 @@
+package edu.umaine.cs.pendulums;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the time it takes a {@link SimpleDoublePendulum} released from rest
+ * to flip, i.e. for either rod to go over the top, as a function of the two
+ * starting angles. The inner angle varies along the x axis and the outer
+ * angle along the y axis, both from -180 to 180 degrees.
+ *
+ * <p>
+ * The image is split into square tiles that are integrated on all cores, each
+ * tile as one {@link SimpleDoublePendulumEnsemble}. Pixels drop out of their
+ * tile's ensemble as soon as they flip, and pixels without enough energy to
+ * ever flip are never integrated. Pixels that don't flip before the horizon
+ * get the horizon as their value. When a tile directory is given every
+ * finished tile is saved there, and tiles already there are reused, so an
+ * interrupted render can be resumed.
+ * </p>
+ *
+ * <p>
+ * The result is written as a single channel PFM (portable float map) file.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class FlipTimeMapRenderer {
+
+    /**
+     * Is told whenever a tile is finished.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param finished
+         *            The number of tiles finished, including ones loaded from
+         *            the tile directory
+         * @param total
+         *            The number of tiles in the image
+         */
+        public void tileFinished(int finished, int total);
+    }
+
+    /**
+     * The number of steps between checks for flips
+     */
+    static final int CHECK_STEPS = 10;
+
+    private int width;
+
+    private int height;
+
+    private int tileSize = 64;
+
+    private double horizon;
+
+    private double dt = 0.01;
+
+    private double l1 = 5, l2 = 5, m1 = 1, m2 = 1;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private File tileDirectory;
+
+    private ProgressListener progressListener;
+
+    /**
+     * @param width
+     *            The number of inner angles
+     * @param height
+     *            The number of outer angles
+     * @param horizon
+     *            How long to wait for a flip
+     */
+    public FlipTimeMapRenderer(int width, int height, double horizon) {
+        assert width > 0 && height > 0 : "requires: width = " + width
+                + ", height = " + height;
+
+        this.width = width;
+        this.height = height;
+        this.horizon = horizon;
+    }
+
+    /**
+     * @param l1
+     *            The length of the inner rod
+     * @param l2
+     *            The length of the outer rod
+     * @param m1
+     *            The inner pendulum's mass
+     * @param m2
+     *            The outer pendulum's mass
+     */
+    public void setPendulum(double l1, double l2, double m1, double m2) {
+        this.l1 = l1;
+        this.l2 = l2;
+        this.m1 = m1;
+        this.m2 = m2;
+    }
+
+    /**
+     * @param dt
+     *            The time step
+     */
+    public void setTimeStep(double dt) {
+        this.dt = dt;
+    }
+
+    /**
+     * @param tileSize
+     *            The width and height of a tile in pixels
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param threads
+     *            The number of tiles to integrate at once
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param tileDirectory
+     *            Where finished tiles are saved and loaded from, null to not
+     *            save them
+     */
+    public void setTileDirectory(File tileDirectory) {
+        this.tileDirectory = tileDirectory;
+    }
+
+    /**
+     * @param progressListener
+     *            Is told whenever a tile is finished, may be null
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @return The number of tiles in the image
+     */
+    public int getTileCount() {
+        return tilesAcross() * tilesDown();
+    }
+
+    private int tilesAcross() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    private int tilesDown() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Render the whole map.
+     *
+     * @return The flip time of every pixel, row by row from the top
+     * @throws IOException
+     *             If a tile could not be saved or loaded
+     * @throws InterruptedException
+     *             If the render was interrupted, finished tiles have been
+     *             saved
+     */
+    public float[] render() throws IOException, InterruptedException {
+
+        final float[] image = new float[width * height];
+        final int total = getTileCount();
+
+        if (tileDirectory != null) {
+            tileDirectory.mkdirs();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        final int[] finished = { 0 };
+
+        try {
+            for (int ty = 0; ty < tilesDown(); ty++) {
+                for (int tx = 0; tx < tilesAcross(); tx++) {
+
+                    final int x0 = tx * tileSize;
+                    final int y0 = ty * tileSize;
+                    final int w = Math.min(tileSize, width - x0);
+                    final int h = Math.min(tileSize, height - y0);
+
+                    futures.add(executor.submit(new Callable<Void>() {
+
+                        public Void call() throws IOException {
+
+                            float[] tile = loadTile(x0, y0, w, h);
+                            if (tile == null) {
+                                tile = renderTile(x0, y0, w, h);
+                                saveTile(x0, y0, tile);
+                            }
+
+                            for (int row = 0; row < h; row++) {
+                                System.arraycopy(tile, row * w, image, (y0 + row)
+                                        * width + x0, w);
+                            }
+
+                            synchronized (finished) {
+                                finished[0]++;
+                                if (progressListener != null) {
+                                    progressListener.tileFinished(finished[0],
+                                            total);
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return image;
+    }
+
+    /**
+     * Integrate every pixel of a tile until it flips or reaches the horizon.
+     *
+     * @param x0
+     *            The tile's left column
+     * @param y0
+     *            The tile's top row
+     * @param w
+     *            The tile's width
+     * @param h
+     *            The tile's height
+     * @return The flip times of the tile, row by row from the top
+     */
+    float[] renderTile(int x0, int y0, int w, int h) {
+
+        float[] tile = new float[w * h];
+
+        SimpleDoublePendulumEnsemble ensemble = new SimpleDoublePendulumEnsemble(
+                w * h);
+
+        // pixel[i] is the pixel member i is computing
+        int[] pixel = new int[w * h];
+        int active = 0;
+
+        // The least potential energy with a rod pointing straight up
+        double flipEnergy = Math.min((m1 + m2) * l1 - m2 * l2, m2 * l2
+                - (m1 + m2) * l1)
+                * PendulumEnsemble.g;
+
+        for (int row = 0; row < h; row++) {
+            for (int col = 0; col < w; col++) {
+
+                double a1 = angle(x0 + col, width);
+                double a2 = -angle(y0 + row, height);
+
+                double energy = -PendulumEnsemble.g
+                        * ((m1 + m2) * l1 * Math.cos(Math.toRadians(a1)) + m2
+                                * l2 * Math.cos(Math.toRadians(a2)));
+
+                if (energy < flipEnergy) {
+                    tile[row * w + col] = (float) horizon;
+                } else {
+                    ensemble.setMember(active, new InitValues(a1, a2, l1, l2,
+                            m1, m2, 0, 0));
+                    pixel[active++] = row * w + col;
+                }
+            }
+        }
+
+        EnsembleStepper stepper = new EnsembleStepper(ensemble);
+        double[][] x = ensemble.getState();
+        double time = 0;
+
+        while (active > 0 && time < horizon) {
+
+            int n = (int) Math.min(CHECK_STEPS, Math.ceil((horizon - time)
+                    / dt));
+            stepper.stepN(dt, n, 0, active);
+            time += n * dt;
+
+            for (int i = 0; i < active;) {
+                if (Math.abs(x[0][i]) > Math.PI || Math.abs(x[2][i]) > Math.PI) {
+
+                    tile[pixel[i]] = (float) Math.min(time, horizon);
+
+                    // All members have the same rods, so only the state of
+                    // the last active member needs to move into the gap
+                    active--;
+                    for (int v = 0; v < x.length; v++) {
+                        x[v][i] = x[v][active];
+                    }
+                    pixel[i] = pixel[active];
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        for (int i = 0; i < active; i++) {
+            tile[pixel[i]] = (float) horizon;
+        }
+
+        return tile;
+    }
+
+    /**
+     * @param i
+     *            A pixel column or row
+     * @param count
+     *            The number of columns or rows
+     * @return The angle (degrees) at the center of the pixel
+     */
+    private static double angle(int i, int count) {
+        return -180 + 360 * (i + 0.5) / count;
+    }
+
+    private File tileFile(int x0, int y0) {
+        return new File(tileDirectory, "tile-" + x0 + "-" + y0 + ".raw");
+    }
+
+    /**
+     * @return The saved tile or null if there isn't a complete one
+     */
+    private float[] loadTile(int x0, int y0, int w, int h) throws IOException {
+
+        if (tileDirectory == null) {
+            return null;
+        }
+
+        File file = tileFile(x0, y0);
+        if (file.length() != 4L * w * h) {
+            return null;
+        }
+
+        float[] tile = new float[w * h];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            for (int i = 0; i < tile.length; i++) {
+                tile[i] = in.readFloat();
+            }
+        } finally {
+            in.close();
+        }
+        return tile;
+    }
+
+    /**
+     * Save a tile, writing to a temporary file first so a tile is never left
+     * half written.
+     */
+    private void saveTile(int x0, int y0, float[] tile) throws IOException {
+
+        if (tileDirectory == null) {
+            return;
+        }
+
+        File file = tileFile(x0, y0);
+        File tmp = new File(tileDirectory, file.getName() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            for (float f : tile) {
+                out.writeFloat(f);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Write an image as a single channel little endian PFM file.
+     *
+     * @param image
+     *            The pixels row by row from the top
+     * @param width
+     *            The width of the image
+     * @param height
+     *            The height of the image
+     * @param file
+     *            The file to write
+     * @throws IOException
+     *             If the file could not be written
+     */
+    public static void writePFM(float[] image, int width, int height,
+            File file) throws IOException {
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(("Pf\n" + width + " " + height + "\n-1.0\n")
+                    .getBytes("US-ASCII"));
+
+            ByteBuffer row = ByteBuffer.allocate(4 * width).order(
+                    ByteOrder.LITTLE_ENDIAN);
+
+            // PFM stores the bottom row first
+            for (int y = height - 1; y >= 0; y--) {
+                row.clear();
+                for (int x = 0; x < width; x++) {
+                    row.putFloat(image[y * width + x]);
+                }
+                out.write(row.array());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Render a flip time map from the command line.
+     *
+     * @param args
+     *            width height horizon output.pfm [tileDirectory]
+     * @throws Exception
+     *             If the map could not be rendered
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 4) {
+            System.out.println("usage: FlipTimeMapRenderer width height "
+                    + "horizon output.pfm [tileDirectory]");
+            return;
+        }
+
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+
+        FlipTimeMapRenderer renderer = new FlipTimeMapRenderer(width, height,
+                Double.parseDouble(args[2]));
+        if (args.length > 4) {
+            renderer.setTileDirectory(new File(args[4]));
+        }
+
+        final long start = System.nanoTime();
+        renderer.setProgressListener(new ProgressListener() {
+            public void tileFinished(int finished, int total) {
+                System.out.printf("\r%d/%d tiles (%.0f%%) %.1fs", finished,
+                        total, 100.0 * finished / total,
+                        (System.nanoTime() - start) * 1e-9);
+            }
+        });
+
+        float[] image = renderer.render();
+        System.out.println();
+
+        writePFM(image, width, height, new File(args[3]));
+    }
+
+}
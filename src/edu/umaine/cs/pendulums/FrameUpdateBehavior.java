@@ -0,0 +1,128 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Enumeration;
+
+import javax.media.j3d.BadTransformException;
+import javax.media.j3d.Behavior;
+import javax.media.j3d.WakeupOnElapsedFrames;
+
+/**
+ * A Java3D behavior that updates a pendulum's geometry once per rendered
+ * frame from the states published by the integrator. This keeps scene graph
+ * updates at the display rate no matter how many steps the integrator takes.
+ * The states are read from the simulation's {@link StateRingBuffer} without
+ * locking, skipping any that were published between frames, and the
+ * geometry is drawn between the latest two, using the alpha the simulation
+ * published for the state that was read.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class FrameUpdateBehavior extends Behavior {
+
+    private XPSYS xpsysFunction;
+
+    private StateRingBuffer states;
+
+    private StateRingBuffer.Consumer consumer;
+
+    private RK4SYS simulation;
+
+    private WakeupOnElapsedFrames everyFrame = new WakeupOnElapsedFrames(0);
+
+    private double[] previous;
+
+    private double[] current;
+
+    private double[] x;
+
+    /**
+     * The sequence number of the state in <code>current</code>
+     */
+    private long sequence;
+
+    /**
+     * true once a state has been read
+     */
+    private boolean ready;
+
+    /**
+     * Create a behavior that draws the states of the given simulation.
+     * 
+     * @param xpsysFunction
+     *            The function whose geometry is updated
+     * @param simulation
+     *            The simulation publishing the states
+     */
+    public FrameUpdateBehavior(XPSYS xpsysFunction, RK4SYS simulation) {
+        this.xpsysFunction = xpsysFunction;
+        this.simulation = simulation;
+        this.states = simulation.getStates();
+        this.consumer = states.newConsumer(StateRingBuffer.Policy.DROP_OLDEST);
+
+        int n = states.getNumberOfVariables();
+        this.previous = new double[n];
+        this.current = new double[n];
+        this.x = new double[n];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see javax.media.j3d.Behavior#initialize()
+     */
+    @Override
+    public void initialize() {
+        wakeupOn(everyFrame);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see javax.media.j3d.Behavior#processStimulus(java.util.Enumeration)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void processStimulus(Enumeration criteria) {
+        updateFrame();
+        wakeupOn(everyFrame);
+    }
+
+    /**
+     * Read the latest state and draw the geometry between it and the one
+     * before.
+     */
+    void updateFrame() {
+
+        if (consumer.pollLatest(current)) {
+
+            sequence = consumer.getSequence();
+
+            // In warp mode the state before may already be overwritten, and
+            // the first state has none
+            if (sequence == 0
+                    || Double.isNaN(states.read(sequence - 1, previous))) {
+                System.arraycopy(current, 0, previous, 0, current.length);
+            }
+
+            ready = true;
+        }
+
+        if (ready && !simulation.hasRequestToFinish()) {
+
+            double alpha = simulation.getAlpha(sequence);
+            double beta = 1 - alpha;
+
+            for (int i = 0; i < x.length; i++) {
+                x[i] = beta * previous[i] + alpha * current[i];
+            }
+
+            try {
+                xpsysFunction.updateGeometry(x);
+            } catch (BadTransformException e) {
+                simulation.errorInCalculationMessage();
+            }
+        }
+    }
+
+}
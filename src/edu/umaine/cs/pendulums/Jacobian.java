@@ -0,0 +1,26 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * An {@link XPSYS} that can compute its Jacobian df/dx in closed form, which
+ * is cheaper and more accurate than approximating it with finite differences
+ * of {@link XPSYS#xpsys(double[], double[])}.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public interface Jacobian {
+
+    /**
+     * Calculates the partial derivatives of the model's right hand side.
+     * Since x[0] is the time and f[0] = 1, the first row is always zero. The
+     * state is not modified.
+     * 
+     * @param x
+     *            The values to differentiate at
+     * @param j
+     *            Where the Jacobian is stored, j[i][k] = df[i]/dx[k]. Every
+     *            entry is overwritten.
+     */
+    public void jacobian(double[] x, double[][] j);
+
+}
@@ -0,0 +1,141 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Random;
+
+/**
+ * Checks a closed form {@link Jacobian} against central differences of the
+ * model's {@link XPSYS#xpsys(double[], double[])}.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class JacobianVerifier {
+
+    private XPSYS xpsysFunction;
+
+    private Jacobian jacobian;
+
+    private int n;
+
+    private double[][] analytic;
+
+    private double[] xp, xm, fp, fm;
+
+    private int worstRow;
+
+    private int worstColumn;
+
+    /**
+     * @param model
+     *            The model to check, which must also implement
+     *            {@link Jacobian}
+     * @param numberOfVariables
+     *            The length of the model's state array
+     */
+    public JacobianVerifier(XPSYS model, int numberOfVariables) {
+        this.xpsysFunction = model;
+        this.jacobian = (Jacobian) model;
+        this.n = numberOfVariables;
+
+        analytic = new double[n][n];
+        xp = new double[n];
+        xm = new double[n];
+        fp = new double[n];
+        fm = new double[n];
+    }
+
+    /**
+     * Compare the Jacobian with central differences at a single state.
+     * 
+     * @param x
+     *            The state to check at, not modified
+     * @return The largest difference between an entry and its approximation,
+     *         relative to the size of the entry if that is larger than one
+     */
+    public double check(double[] x) {
+
+        jacobian.jacobian(x, analytic);
+
+        double worst = 0;
+
+        for (int k = 0; k < n; k++) {
+
+            System.arraycopy(x, 0, xp, 0, n);
+            System.arraycopy(x, 0, xm, 0, n);
+
+            double h = 1e-6 * Math.max(1, Math.abs(x[k]));
+            xp[k] += h;
+            xm[k] -= h;
+
+            xpsysFunction.xpsys(xp, fp);
+            xpsysFunction.xpsys(xm, fm);
+
+            for (int i = 0; i < n; i++) {
+                double approx = (fp[i] - fm[i]) / (xp[k] - xm[k]);
+                double error = Math.abs(analytic[i][k] - approx)
+                        / Math.max(1, Math.abs(approx));
+                if (error > worst) {
+                    worst = error;
+                    worstRow = i;
+                    worstColumn = k;
+                }
+            }
+        }
+
+        return worst;
+    }
+
+    /**
+     * Compare the Jacobian with central differences at random states.
+     * 
+     * @param low
+     *            The smallest value of each variable
+     * @param high
+     *            The largest value of each variable
+     * @param samples
+     *            The number of states to check
+     * @param seed
+     *            Seeds the random states
+     * @return The largest error found by {@link #check(double[])}
+     */
+    public double check(double[] low, double[] high, int samples, long seed) {
+
+        Random random = new Random(seed);
+        double[] x = new double[n];
+        double worst = 0;
+        int row = 0, column = 0;
+
+        for (int s = 0; s < samples; s++) {
+            for (int i = 0; i < n; i++) {
+                x[i] = low[i] + (high[i] - low[i]) * random.nextDouble();
+            }
+            double error = check(x);
+            if (error > worst) {
+                worst = error;
+                row = worstRow;
+                column = worstColumn;
+            }
+        }
+
+        worstRow = row;
+        worstColumn = column;
+
+        return worst;
+    }
+
+    /**
+     * @return The row of the entry with the largest error in the last check
+     */
+    public int getWorstRow() {
+        return worstRow;
+    }
+
+    /**
+     * @return The column of the entry with the largest error in the last
+     *         check
+     */
+    public int getWorstColumn() {
+        return worstColumn;
+    }
+
+}
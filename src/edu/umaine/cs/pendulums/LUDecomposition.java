@@ -0,0 +1,135 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * LU decomposition with partial pivoting of a square matrix. All of the
+ * storage is allocated when the object is created, so a matrix can be
+ * factored and solved with over and over again without creating garbage.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class LUDecomposition {
+
+    private int n;
+
+    /**
+     * L below the diagonal (with an implicit unit diagonal) and U on and
+     * above it
+     */
+    private double[][] lu;
+
+    private int[] pivot;
+
+    private double[] y;
+
+    /**
+     * @param n
+     *            The size of the matrices that will be factored
+     */
+    public LUDecomposition(int n) {
+        this.n = n;
+        this.lu = new double[n][n];
+        this.pivot = new int[n];
+        this.y = new double[n];
+    }
+
+    /**
+     * Factor a matrix. The matrix itself is not modified.
+     * 
+     * @param a
+     *            The n by n matrix to factor
+     * @return false iff the matrix is singular
+     */
+    public boolean decompose(double[][] a) {
+
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(a[i], 0, lu[i], 0, n);
+            pivot[i] = i;
+        }
+
+        for (int k = 0; k < n; k++) {
+
+            int p = k;
+            double max = Math.abs(lu[k][k]);
+            for (int i = k + 1; i < n; i++) {
+                if (Math.abs(lu[i][k]) > max) {
+                    max = Math.abs(lu[i][k]);
+                    p = i;
+                }
+            }
+
+            if (max == 0 || Double.isNaN(max)) {
+                return false;
+            }
+
+            if (p != k) {
+                double[] row = lu[p];
+                lu[p] = lu[k];
+                lu[k] = row;
+                int tmp = pivot[p];
+                pivot[p] = pivot[k];
+                pivot[k] = tmp;
+            }
+
+            double[] rowK = lu[k];
+            for (int i = k + 1; i < n; i++) {
+                double[] rowI = lu[i];
+                double factor = rowI[k] / rowK[k];
+                rowI[k] = factor;
+                if (factor != 0) {
+                    for (int j = k + 1; j < n; j++) {
+                        rowI[j] -= factor * rowK[j];
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Solve A x = b with the last matrix factored.
+     * 
+     * @param b
+     *            The right hand side, not modified unless it is also
+     *            <code>x</code>
+     * @param x
+     *            Where the solution is stored, may be the same array as
+     *            <code>b</code>
+     */
+    public void solve(double[] b, double[] x) {
+
+        // Work in a separate array so that x may be the same array as b
+        for (int i = 0; i < n; i++) {
+            y[i] = b[pivot[i]];
+        }
+
+        for (int i = 0; i < n; i++) {
+            double sum = y[i];
+            double[] row = lu[i];
+            for (int j = 0; j < i; j++) {
+                sum -= row[j] * y[j];
+            }
+            y[i] = sum;
+        }
+
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = y[i];
+            double[] row = lu[i];
+            for (int j = i + 1; j < n; j++) {
+                sum -= row[j] * y[j];
+            }
+            y[i] = sum / row[i];
+        }
+
+        System.arraycopy(y, 0, x, 0, n);
+    }
+
+    /**
+     * @return The size of the matrices this decomposition handles
+     */
+    public int getSize() {
+        return n;
+    }
+
+}
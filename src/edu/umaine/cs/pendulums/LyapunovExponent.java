@@ -0,0 +1,237 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Estimates the largest Lyapunov exponent of a model by following a shadow
+ * trajectory that starts a tiny distance away from the real one. Every few
+ * steps the growth of the distance between the two is recorded and the shadow
+ * is pulled back to the original distance along the same direction
+ * (Benettin's method). The exponent is the average logarithmic growth rate. A
+ * positive exponent means nearby trajectories separate exponentially, i.e.
+ * the motion is chaotic.
+ *
+ * <p>
+ * The time in x[0] is not part of the distance. Angles are not wrapped, since
+ * the shadow never gets far enough away for it to matter.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class LyapunovExponent {
+
+    /**
+     * The distance the shadow is kept at after each renormalization
+     */
+    static final double SEPARATION = 1e-8;
+
+    /**
+     * The number of renormalizations between convergence checks
+     */
+    static final int WINDOW = 50;
+
+    private Stepper stepper;
+
+    private double[] x;
+
+    private double[] shadow;
+
+    private int renormalizations;
+
+    /**
+     * Create a calculator using the classic Runge-Kutta method.
+     *
+     * @param xpsysFunction
+     *            The model
+     * @param numberOfVariables
+     *            The length of the model's state array
+     */
+    public LyapunovExponent(XPSYS xpsysFunction, int numberOfVariables) {
+        this(new RK4Stepper(xpsysFunction, numberOfVariables));
+    }
+
+    /**
+     * @param stepper
+     *            Used to advance both trajectories. It should take fixed
+     *            steps so that both are integrated the same way.
+     */
+    public LyapunovExponent(Stepper stepper) {
+        this.stepper = stepper;
+        this.x = new double[stepper.getNumberOfVariables()];
+        this.shadow = new double[stepper.getNumberOfVariables()];
+    }
+
+    /**
+     * Estimate the exponent starting from <code>x0</code>. The estimate is
+     * compared with the one {@value #WINDOW} renormalizations earlier and the
+     * calculation stops once they are within <code>tolerance</code> of each
+     * other, or after <code>maxRenormalizations</code> renormalizations.
+     *
+     * @param x0
+     *            The initial values, not modified
+     * @param dt
+     *            The time step
+     * @param renormalizeSteps
+     *            The number of steps between renormalizations, >= 1
+     * @param maxRenormalizations
+     *            The most renormalizations to do, >= 1
+     * @param tolerance
+     *            How close successive estimates must be to stop early, 0 to
+     *            always do <code>maxRenormalizations</code>
+     * @return The largest Lyapunov exponent (1/time)
+     */
+    public double compute(double[] x0, double dt, int renormalizeSteps,
+            int maxRenormalizations, double tolerance) {
+        assert renormalizeSteps >= 1 : "requires: renormalizeSteps = "
+                + renormalizeSteps;
+        assert maxRenormalizations >= 1 : "requires: maxRenormalizations = "
+                + maxRenormalizations;
+
+        int n = x.length;
+
+        System.arraycopy(x0, 0, x, 0, n);
+        System.arraycopy(x0, 0, shadow, 0, n);
+
+        // Start the shadow off along the diagonal
+        double offset = SEPARATION / Math.sqrt(n - 1);
+        for (int i = 1; i < n; i++) {
+            shadow[i] += offset;
+        }
+
+        double interval = dt * renormalizeSteps;
+        double sum = 0;
+        double checkpoint = Double.NaN;
+
+        for (renormalizations = 1; renormalizations <= maxRenormalizations; renormalizations++) {
+
+            stepper.stepN(x, dt, renormalizeSteps);
+            stepper.stepN(shadow, dt, renormalizeSteps);
+
+            double d = 0;
+            for (int i = 1; i < n; i++) {
+                double diff = shadow[i] - x[i];
+                d += diff * diff;
+            }
+            d = Math.sqrt(d);
+
+            sum += Math.log(d / SEPARATION);
+
+            double scale = SEPARATION / d;
+            for (int i = 1; i < n; i++) {
+                shadow[i] = x[i] + (shadow[i] - x[i]) * scale;
+            }
+
+            if (renormalizations % WINDOW == 0) {
+                double estimate = sum / (renormalizations * interval);
+                if (Math.abs(estimate - checkpoint) < tolerance) {
+                    return estimate;
+                }
+                checkpoint = estimate;
+            }
+        }
+
+        renormalizations = maxRenormalizations;
+
+        return sum / (maxRenormalizations * interval);
+    }
+
+    /**
+     * @return The number of renormalizations the last call to
+     *         {@link #compute(double[], double, int, int, double)} did
+     */
+    public int getRenormalizations() {
+        return renormalizations;
+    }
+
+    /**
+     * @return The state the last calculation ended in
+     */
+    public double[] getState() {
+        return x;
+    }
+
+    /**
+     * Estimate the exponent for many initial conditions at once. The first
+     * half of the ensemble follows the real trajectories and the second half
+     * the shadows. The ensemble is stepped on all cores and always does
+     * <code>renormalizations</code> renormalizations.
+     *
+     * @param ensemble
+     *            Holds the trajectories. Its members are overwritten and it
+     *            must have at least twice as many members as there are points.
+     * @param points
+     *            The initial conditions
+     * @param dt
+     *            The time step
+     * @param renormalizeSteps
+     *            The number of steps between renormalizations, >= 1
+     * @param renormalizations
+     *            The number of renormalizations to do, >= 1
+     * @param exponents
+     *            Where the exponent of each point is stored
+     */
+    public static void computeBatch(PendulumEnsemble ensemble,
+            InitValues[] points, double dt, int renormalizeSteps,
+            int renormalizations, double[] exponents) {
+        assert ensemble.size() >= 2 * points.length : "requires: ensemble.size() = "
+                + ensemble.size();
+        assert renormalizeSteps >= 1 : "requires: renormalizeSteps = "
+                + renormalizeSteps;
+        assert renormalizations >= 1 : "requires: renormalizations = "
+                + renormalizations;
+
+        int count = points.length;
+        int half = ensemble.size() / 2;
+        int variables = ensemble.getNumberOfVariables();
+        double[][] state = ensemble.getState();
+
+        for (int i = 0; i < half; i++) {
+            InitValues values = points[Math.min(i, count - 1)];
+            ensemble.setMember(i, values);
+            ensemble.setMember(i + half, values);
+        }
+        if (ensemble.size() % 2 == 1) {
+            ensemble.setMember(ensemble.size() - 1, points[count - 1]);
+        }
+        ensemble.setTime(0);
+
+        double offset = SEPARATION / Math.sqrt(variables);
+        for (int v = 0; v < variables; v++) {
+            for (int i = 0; i < half; i++) {
+                state[v][i + half] += offset;
+            }
+        }
+
+        ParallelEnsembleRunner runner = new ParallelEnsembleRunner(ensemble);
+
+        double interval = dt * renormalizeSteps;
+        double[] sum = new double[count];
+
+        for (int r = 1; r <= renormalizations; r++) {
+
+            runner.advanceTo(r * interval, dt);
+
+            for (int i = 0; i < count; i++) {
+
+                double d = 0;
+                for (int v = 0; v < variables; v++) {
+                    double diff = state[v][i + half] - state[v][i];
+                    d += diff * diff;
+                }
+                d = Math.sqrt(d);
+
+                sum[i] += Math.log(d / SEPARATION);
+
+                double scale = SEPARATION / d;
+                for (int v = 0; v < variables; v++) {
+                    state[v][i + half] = state[v][i]
+                            + (state[v][i + half] - state[v][i]) * scale;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            exponents[i] = sum[i] / (renormalizations * interval);
+        }
+    }
+
+}
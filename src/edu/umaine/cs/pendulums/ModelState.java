@@ -0,0 +1,110 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Arrays;
+
+/**
+ * The initial state of a model and the changes made to it while it is being
+ * simulated, held as flat arrays laid out like the model's state vector
+ * <code>x</code>. This, not the scene graph, is where a model's values come
+ * from: the simulation starts from {@link #getInitial()}, picks up changes
+ * between steps with {@link #applyEdits(double[])}, and the geometry is only
+ * ever drawn from the resulting states.
+ *
+ * <p>
+ * Values are set from the user interface thread and applied by the
+ * simulation thread. Checking for changes reads a single volatile flag, so
+ * the simulation only takes the lock when there is something to apply.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class ModelState {
+
+    private double[] initial;
+
+    private double[] edits;
+
+    private boolean[] edited;
+
+    private volatile boolean pending;
+
+    /**
+     * @param initial
+     *            The model's default initial state, including time, which is
+     *            copied
+     */
+    public ModelState(double[] initial) {
+        this.initial = initial.clone();
+        this.edits = new double[initial.length];
+        this.edited = new boolean[initial.length];
+    }
+
+    /**
+     * Set a variable of the initial state, and of the running simulation the
+     * next time it applies the edits.
+     *
+     * @param variable
+     *            The index of the variable in the state vector
+     * @param value
+     *            The new value
+     */
+    public synchronized void set(int variable, double value) {
+        initial[variable] = value;
+        edits[variable] = value;
+        edited[variable] = true;
+        pending = true;
+    }
+
+    /**
+     * Make the next {@link #applyEdits(double[])} report a change without
+     * setting any variable, for a parameter that the state or its derivatives
+     * depend on.
+     */
+    public synchronized void markChanged() {
+        pending = true;
+    }
+
+    /**
+     * @param variable
+     *            The index of the variable in the state vector
+     * @return The variable's initial value
+     */
+    public synchronized double get(int variable) {
+        return initial[variable];
+    }
+
+    /**
+     * @return A copy of the initial state
+     */
+    public synchronized double[] getInitial() {
+        return initial.clone();
+    }
+
+    /**
+     * Copy the variables set since the last call into a state.
+     *
+     * @param x
+     *            The state of the running simulation
+     * @return true iff any variable was changed
+     */
+    public boolean applyEdits(double[] x) {
+
+        if (!pending) {
+            return false;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < edited.length; i++) {
+                if (edited[i]) {
+                    x[i] = edits[i];
+                }
+            }
+            Arrays.fill(edited, false);
+            pending = false;
+        }
+
+        return true;
+    }
+
+}
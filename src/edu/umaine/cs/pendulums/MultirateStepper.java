@@ -0,0 +1,300 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * A multirate Runge-Kutta method of order 4 for a {@link MultirateSystem}.
+ * Each step of size <code>dt</code> first takes <code>substeps</code> RK4
+ * steps of the fast variables alone, with the slow variables extrapolated
+ * linearly from the start of the step, and then one RK4 step of the slow
+ * variables, with the fast values at the stages taken from the sub steps.
+ * This is the fastest first strategy of Gear and Wells, multirate linear
+ * multistep methods, 1984, applied to RK4.
+ *
+ * <p>
+ * For stiff springs the fast sub steps resolve the springs as accurately as
+ * single rate RK4 with the sub step size, while the expensive full right hand
+ * side is only evaluated four times per step. When the springs are soft the
+ * extrapolation of the slow variables limits the accuracy, and single rate
+ * RK4 is the better choice.
+ * </p>
+ *
+ * @author Mark Royer
+ */
+public class MultirateStepper implements Stepper {
+
+    private MultirateSystem system;
+
+    private int numberOfVariables;
+
+    private int substeps;
+
+    /**
+     * The indices of the fast variables
+     */
+    private int[] fast;
+
+    /**
+     * The indices of the slow variables, including the time x[0]
+     */
+    private int[] slow;
+
+    private double[] f0, f1, f2, f3, f4;
+
+    /**
+     * The values during the fast sub steps
+     */
+    private double[] y;
+
+    /**
+     * The values at a stage
+     */
+    private double[] z;
+
+    /**
+     * The fast values half way through the step
+     */
+    private double[] middle;
+
+    private long evaluations;
+
+    private long fastEvaluations;
+
+    /**
+     * Create a new stepper for the given function.
+     *
+     * @param system
+     *            Functor of the problem to solve
+     * @param numberOfVariables
+     *            The length of the state arrays that will be stepped
+     * @param substeps
+     *            The number of steps the fast variables take for each step of
+     *            the slow ones, even and > 0
+     */
+    public MultirateStepper(MultirateSystem system, int numberOfVariables,
+            int substeps) {
+        assert substeps > 0 && substeps % 2 == 0 : "requires: substeps = "
+                + substeps;
+
+        this.system = system;
+        this.numberOfVariables = numberOfVariables;
+        this.substeps = substeps;
+
+        int count = 0;
+        for (int i = 1; i < numberOfVariables; i++) {
+            if (system.isFast(i)) {
+                count++;
+            }
+        }
+
+        fast = new int[count];
+        slow = new int[numberOfVariables - count];
+
+        for (int i = 0, f = 0, s = 0; i < numberOfVariables; i++) {
+            if (i > 0 && system.isFast(i)) {
+                fast[f++] = i;
+            } else {
+                slow[s++] = i;
+            }
+        }
+
+        int n = numberOfVariables;
+        f0 = new double[n];
+        f1 = new double[n];
+        f2 = new double[n];
+        f3 = new double[n];
+        f4 = new double[n];
+        y = new double[n];
+        z = new double[n];
+        middle = new double[n];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#step(double[], double)
+     */
+    public void step(double[] x, double dt) {
+
+        double h = dt / substeps;
+
+        system.xpsys(x, f0);
+        evaluations++;
+
+        System.arraycopy(x, 0, y, 0, numberOfVariables);
+
+        for (int j = 0; j < substeps; j++) {
+            fastStep(x, j * h, h);
+            if (2 * (j + 1) == substeps) {
+                System.arraycopy(y, 0, middle, 0, numberOfVariables);
+            }
+        }
+
+        double dt2 = .5 * dt;
+
+        for (int i : slow) {
+            z[i] = x[i] + dt2 * f0[i];
+        }
+        for (int i : fast) {
+            z[i] = middle[i];
+        }
+        system.xpsys(z, f2);
+
+        for (int i : slow) {
+            z[i] = x[i] + dt2 * f2[i];
+        }
+        system.xpsys(z, f3);
+
+        for (int i : slow) {
+            z[i] = x[i] + dt * f3[i];
+        }
+        for (int i : fast) {
+            z[i] = y[i];
+        }
+        system.xpsys(z, f4);
+
+        evaluations += 3;
+
+        for (int i : slow) {
+            x[i] = x[i] + dt * (f0[i] + 2.0 * (f2[i] + f3[i]) + f4[i]) / 6.0;
+        }
+        for (int i : fast) {
+            x[i] = y[i];
+        }
+    }
+
+    /**
+     * Take an RK4 step of the fast variables in <code>y</code>. The derivative
+     * at the start of the whole step must already be in <code>f0</code>.
+     *
+     * @param x
+     *            The values at the start of the whole step
+     * @param tau
+     *            The time since the start of the whole step
+     * @param h
+     *            The sub step size
+     */
+    private void fastStep(double[] x, double tau, double h) {
+
+        double h2 = .5 * h;
+
+        extrapolate(x, tau, y);
+        system.fastXpsys(y, f1);
+
+        extrapolate(x, tau + h2, z);
+        for (int i : fast) {
+            z[i] = y[i] + h2 * f1[i];
+        }
+        system.fastXpsys(z, f2);
+
+        for (int i : fast) {
+            z[i] = y[i] + h2 * f2[i];
+        }
+        system.fastXpsys(z, f3);
+
+        extrapolate(x, tau + h, z);
+        for (int i : fast) {
+            z[i] = y[i] + h * f3[i];
+        }
+        system.fastXpsys(z, f4);
+
+        fastEvaluations += 4;
+
+        for (int i : fast) {
+            y[i] = y[i] + h * (f1[i] + 2.0 * (f2[i] + f3[i]) + f4[i]) / 6.0;
+        }
+    }
+
+    /**
+     * Estimate the slow values a short time into the step.
+     *
+     * @param x
+     *            The values at the start of the step
+     * @param tau
+     *            The time since the start of the step
+     * @param out
+     *            Where the slow values are stored
+     */
+    private void extrapolate(double[] x, double tau, double[] out) {
+        for (int i : slow) {
+            out[i] = x[i] + tau * f0[i];
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#stepN(double[], double, int)
+     */
+    public void stepN(double[] x, double dt, int n) {
+        for (int k = 0; k < n; k++) {
+            step(x, dt);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#advanceTo(double[], double, double,
+     *      double)
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt) {
+        while (time < endTime) {
+            double h = Math.min(dt, endTime - time);
+            step(x, h);
+            time += h;
+        }
+        return endTime;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#invalidate()
+     */
+    public void invalidate() {
+        // Nothing is kept between calls
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#getNumberOfVariables()
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    /**
+     * @return The number of fast steps taken for each step
+     */
+    public int getSubsteps() {
+        return substeps;
+    }
+
+    /**
+     * @return The number of times the whole right hand side has been
+     *         evaluated
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return The number of times the derivatives of just the fast variables
+     *         have been evaluated
+     */
+    public long getFastEvaluations() {
+        return fastEvaluations;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "substeps:" + substeps + "," + " evaluations:" + evaluations
+                + "," + " fast evaluations:" + fastEvaluations;
+    }
+
+}
@@ -0,0 +1,34 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * An {@link XPSYS} whose variables are split into fast ones, such as the
+ * lengths of stiff springs, and slow ones, such as the angles of the rods.
+ * The derivatives of just the fast variables can be computed on their own,
+ * more cheaply than the whole right hand side, so a {@link MultirateStepper}
+ * can take several small steps of the fast variables for each step of the
+ * slow ones.
+ *
+ * @author Mark Royer
+ *
+ */
+public interface MultirateSystem extends XPSYS {
+
+    /**
+     * @param variable
+     *            The index of a variable in the state array, > 0
+     * @return true iff the variable changes on the fast time scale
+     */
+    public boolean isFast(int variable);
+
+    /**
+     * Calculates the derivatives of the fast variables only. The entries of
+     * <code>f</code> that belong to slow variables are left alone.
+     *
+     * @param x
+     *            The current values
+     * @param f
+     *            Where the derivatives of the fast variables are stored
+     */
+    public void fastXpsys(double[] x, double[] f);
+
+}
@@ -0,0 +1,219 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a {@link PendulumEnsemble} on all cores. The members are split into
+ * chunks small enough to stay in a core's cache and each chunk is stepped all
+ * the way to the target time by a single {@link ForkJoinPool} task. The chunk
+ * boundaries depend only on the ensemble, never on the number of threads, so
+ * the results are bit-identical however many threads are used.
+ * 
+ * <p>
+ * The Vector API kernels' sine and cosine may differ in the last bit between
+ * interpreted and compiled code, and which one a chunk gets depends on how
+ * the chunks are scheduled. So by default the runner steps the ensemble with
+ * the scalar kernels, and only uses the vector kernels of a vectorized
+ * ensemble once {@link #setDeterministic(boolean)} has turned this off.
+ * </p>
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ParallelEnsembleRunner {
+
+    /**
+     * The cache size each chunk's working set should fit in, in bytes.
+     */
+    static final int CACHE_BYTES = 256 * 1024;
+
+    private EnsembleStepper stepper;
+
+    private ForkJoinPool pool;
+
+    private int chunkSize;
+
+    private long[] chunkNanos;
+
+    private boolean deterministic = true;
+
+    /**
+     * Create a runner for the given ensemble using the common pool and chunks
+     * sized for the cache.
+     * 
+     * @param ensemble
+     *            The pendulums to step
+     */
+    public ParallelEnsembleRunner(PendulumEnsemble ensemble) {
+        this(ensemble, ForkJoinPool.commonPool(), defaultChunkSize(ensemble));
+    }
+
+    /**
+     * Create a runner for the given ensemble.
+     * 
+     * @param ensemble
+     *            The pendulums to step
+     * @param pool
+     *            The threads to step the chunks on
+     * @param chunkSize
+     *            The number of members in each chunk, rounded up to a
+     *            multiple of the stepper's block size
+     */
+    public ParallelEnsembleRunner(PendulumEnsemble ensemble,
+            ForkJoinPool pool, int chunkSize) {
+        this.stepper = new EnsembleStepper(ensemble);
+        this.pool = pool;
+
+        int blocks = Math.max(1, (chunkSize + EnsembleStepper.BLOCK - 1)
+                / EnsembleStepper.BLOCK);
+        this.chunkSize = blocks * EnsembleStepper.BLOCK;
+
+        int chunks = (ensemble.size() + this.chunkSize - 1) / this.chunkSize;
+        this.chunkNanos = new long[chunks];
+    }
+
+    /**
+     * The number of members whose state, stepper scratch space and parameters
+     * fit in {@link #CACHE_BYTES}.
+     * 
+     * @param ensemble
+     *            The pendulums to step
+     * @return The number of members per chunk
+     */
+    static int defaultChunkSize(PendulumEnsemble ensemble) {
+        // State, three scratch arrays and about as many parameters again
+        int bytesPerMember = 8 * 5 * ensemble.getNumberOfVariables();
+        int members = CACHE_BYTES / bytesPerMember;
+        return Math.max(EnsembleStepper.BLOCK, members
+                / EnsembleStepper.BLOCK * EnsembleStepper.BLOCK);
+    }
+
+    /**
+     * Advance every member to the given time using steps no larger than
+     * <code>dt</code>.
+     * 
+     * @param endTime
+     *            The time to advance to
+     * @param dt
+     *            The largest time step
+     */
+    public void advanceTo(double endTime, double dt) {
+
+        PendulumEnsemble ensemble = stepper.getEnsemble();
+        double time = ensemble.getTime();
+
+        if (time >= endTime) {
+            return;
+        }
+
+        int n = (int) Math.ceil((endTime - time) / dt);
+
+        boolean scalar = deterministic && ensemble.isVectorized();
+        if (scalar) {
+            ensemble.setVectorized(false);
+        }
+
+        try {
+            pool.invoke(new ChunkTask((endTime - time) / n, n, 0,
+                    chunkNanos.length));
+        } finally {
+            if (scalar) {
+                ensemble.setVectorized(true);
+            }
+        }
+
+        ensemble.setTime(endTime);
+    }
+
+    /**
+     * @param deterministic
+     *            true to step with the scalar kernels so the results don't
+     *            depend on the number of threads or on scheduling, false to
+     *            use the vector kernels if the ensemble is vectorized
+     */
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * @return true iff the results are bit-identical however the chunks are
+     *         scheduled
+     */
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /**
+     * @return The number of members in each chunk
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return The number of chunks the ensemble is split into
+     */
+    public int getChunkCount() {
+        return chunkNanos.length;
+    }
+
+    /**
+     * @return The wall clock time in nanoseconds each chunk took during the
+     *         last call to {@link #advanceTo(double, double)}. This is the
+     *         runner's own array, not a copy.
+     */
+    public long[] getChunkNanos() {
+        return chunkNanos;
+    }
+
+    /**
+     * @return The ensemble being stepped
+     */
+    public PendulumEnsemble getEnsemble() {
+        return stepper.getEnsemble();
+    }
+
+    /**
+     * Steps a range of chunks, splitting it in half until a single chunk is
+     * left.
+     */
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -1436211305871466412L;
+
+        private double dt;
+
+        private int n;
+
+        private int firstChunk;
+
+        private int lastChunk;
+
+        ChunkTask(double dt, int n, int firstChunk, int lastChunk) {
+            this.dt = dt;
+            this.n = n;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (lastChunk - firstChunk > 1) {
+                int middle = (firstChunk + lastChunk) >>> 1;
+                invokeAll(new ChunkTask(dt, n, firstChunk, middle),
+                        new ChunkTask(dt, n, middle, lastChunk));
+                return;
+            }
+
+            int from = firstChunk * chunkSize;
+            int to = Math.min(from + chunkSize, stepper.getEnsemble().size());
+
+            long start = System.nanoTime();
+            stepper.stepN(dt, n, from, to);
+            chunkNanos[firstChunk] = System.nanoTime() - start;
+        }
+    }
+
+}
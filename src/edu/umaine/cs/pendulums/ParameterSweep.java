@@ -0,0 +1,387 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Every combination of a range of values for each of the fields of
+ * {@link InitValues}. The combinations are decoded from their index when they
+ * are needed, so a sweep over millions of points takes no more memory than one
+ * over a handful. The inner angle varies fastest, then the outer angle, the
+ * lengths, the masses and finally the spring constants.
+ *
+ * <p>
+ * {@link #run(PendulumEnsemble, double, double, int, Listener)} integrates the
+ * points in batches the size of the given ensemble and reports a summary of
+ * each one as soon as its batch is done.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class ParameterSweep implements Iterable<InitValues> {
+
+    /**
+     * Evenly spaced values between two end points.
+     */
+    public static class Range {
+
+        private double start;
+
+        private double end;
+
+        private int count;
+
+        /**
+         * @param start
+         *            The first value
+         * @param end
+         *            The last value
+         * @param count
+         *            The number of values, >= 1
+         */
+        public Range(double start, double end, int count) {
+            assert count >= 1 : "requires: count = " + count;
+
+            this.start = start;
+            this.end = end;
+            this.count = count;
+        }
+
+        /**
+         * @param value
+         *            The only value
+         * @return A range holding a single value
+         */
+        public static Range of(double value) {
+            return new Range(value, value, 1);
+        }
+
+        /**
+         * @param i
+         *            The index of the value, 0 <= i < count
+         * @return The i-th value of the range
+         */
+        public double get(int i) {
+            return count == 1 ? start : start + (end - start) * i
+                    / (count - 1);
+        }
+
+        /**
+         * @return The number of values
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + "] x " + count;
+        }
+    }
+
+    /**
+     * Receives the summary of each point of the sweep.
+     */
+    public interface Listener {
+
+        /**
+         * @param result
+         *            The summary of a point. The object is reused for the next
+         *            point, so copy anything that has to be kept.
+         */
+        public void result(Result result);
+    }
+
+    /**
+     * The summary of a single point of a sweep.
+     */
+    public static class Result {
+
+        private long index;
+
+        private InitValues values;
+
+        private double[] finalState;
+
+        private double maxInnerAngle;
+
+        private double maxOuterAngle;
+
+        private double energyError;
+
+        private double flipTime;
+
+        Result(int numberOfVariables) {
+            finalState = new double[numberOfVariables + 1];
+        }
+
+        /**
+         * @return The index of the point in the sweep
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The values the point started with
+         */
+        public InitValues getValues() {
+            return values;
+        }
+
+        /**
+         * @return The state at the horizon in the layout of the matching
+         *         {@link XPSYS} model, with the time in x[0]
+         */
+        public double[] getFinalState() {
+            return finalState;
+        }
+
+        /**
+         * @return The largest absolute inner angle seen (radians)
+         */
+        public double getMaxInnerAngle() {
+            return maxInnerAngle;
+        }
+
+        /**
+         * @return The largest absolute outer angle seen (radians)
+         */
+        public double getMaxOuterAngle() {
+            return maxOuterAngle;
+        }
+
+        /**
+         * @return The largest absolute difference between the energy and the
+         *         starting energy
+         */
+        public double getEnergyError() {
+            return energyError;
+        }
+
+        /**
+         * @return The first time either rod went over the top, NaN if neither
+         *         did before the horizon
+         */
+        public double getFlipTime() {
+            return flipTime;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return index + ": " + values + " maxInnerAngle:" + maxInnerAngle
+                    + " maxOuterAngle:" + maxOuterAngle + " energyError:"
+                    + energyError + " flipTime:" + flipTime;
+        }
+    }
+
+    /**
+     * a1, a2, l1, l2, m1, m2, k1 and k2 in the order of InitValues
+     */
+    private Range[] ranges;
+
+    private long size;
+
+    /**
+     * @param a1
+     *            Inner pendulum angles (degrees)
+     * @param a2
+     *            Outer pendulum angles (degrees)
+     * @param l1
+     *            Inner pendulum lengths
+     * @param l2
+     *            Outer pendulum lengths
+     * @param m1
+     *            Inner pendulum masses
+     * @param m2
+     *            Outer pendulum masses
+     * @param k1
+     *            Inner pendulum spring constants
+     * @param k2
+     *            Outer pendulum spring constants
+     */
+    public ParameterSweep(Range a1, Range a2, Range l1, Range l2, Range m1,
+            Range m2, Range k1, Range k2) {
+
+        ranges = new Range[] { a1, a2, l1, l2, m1, m2, k1, k2 };
+
+        size = 1;
+        for (Range r : ranges) {
+            size = Math.multiplyExact(size, r.getCount());
+        }
+    }
+
+    /**
+     * @return The number of points in the sweep
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            The index of the point, 0 <= index < size()
+     * @return The values of the point
+     */
+    public InitValues get(long index) {
+        assert index >= 0 && index < size : "requires: index = " + index;
+
+        double[] v = new double[ranges.length];
+
+        for (int i = 0; i < ranges.length; i++) {
+            int count = ranges[i].getCount();
+            v[i] = ranges[i].get((int) (index % count));
+            index /= count;
+        }
+
+        return new InitValues(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Iterable#iterator()
+     */
+    public Iterator<InitValues> iterator() {
+        return new Iterator<InitValues>() {
+
+            private long next = 0;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public InitValues next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Integrate every point of the sweep to the horizon and report a summary
+     * of each one. The points are run in batches the size of
+     * <code>ensemble</code> on all cores. The angles and the energy are
+     * checked every <code>sampleSteps</code> steps, so the flip time is only
+     * known to within <code>sampleSteps * dt</code>.
+     *
+     * @param ensemble
+     *            The model to run the points through. Its members are
+     *            overwritten.
+     * @param horizon
+     *            How long to run each point for
+     * @param dt
+     *            The time step
+     * @param sampleSteps
+     *            The number of steps between checks, >= 1
+     * @param listener
+     *            Receives the summaries in the order of the points
+     */
+    public void run(PendulumEnsemble ensemble, double horizon, double dt,
+            int sampleSteps, Listener listener) {
+        assert sampleSteps >= 1 : "requires: sampleSteps = " + sampleSteps;
+
+        ParallelEnsembleRunner runner = new ParallelEnsembleRunner(ensemble);
+
+        int batch = ensemble.size();
+        int inner = ensemble.getInnerAngleVariable();
+        int outer = ensemble.getOuterAngleVariable();
+
+        InitValues[] values = new InitValues[batch];
+        double[] startEnergy = new double[batch];
+        double[] maxInner = new double[batch];
+        double[] maxOuter = new double[batch];
+        double[] energyError = new double[batch];
+        double[] flipTime = new double[batch];
+
+        Result result = new Result(ensemble.getNumberOfVariables());
+
+        for (long first = 0; first < size; first += batch) {
+
+            int count = (int) Math.min(batch, size - first);
+
+            for (int i = 0; i < batch; i++) {
+                // Pad the last batch with copies of its last point
+                if (i < count) {
+                    values[i] = get(first + i);
+                }
+                ensemble.setMember(i, values[Math.min(i, count - 1)]);
+            }
+            ensemble.setTime(0);
+
+            double[] theta1 = ensemble.getVariable(inner);
+            double[] theta2 = ensemble.getVariable(outer);
+
+            for (int i = 0; i < count; i++) {
+                startEnergy[i] = ensemble.energy(i);
+                maxInner[i] = Math.abs(theta1[i]);
+                maxOuter[i] = Math.abs(theta2[i]);
+                energyError[i] = 0;
+                flipTime[i] = Double.NaN;
+            }
+
+            double time = 0;
+
+            while (time < horizon) {
+
+                time = Math.min(horizon, time + sampleSteps * dt);
+                runner.advanceTo(time, dt);
+
+                for (int i = 0; i < count; i++) {
+                    double a1 = Math.abs(theta1[i]);
+                    double a2 = Math.abs(theta2[i]);
+
+                    maxInner[i] = Math.max(maxInner[i], a1);
+                    maxOuter[i] = Math.max(maxOuter[i], a2);
+                    energyError[i] = Math.max(energyError[i], Math
+                            .abs(ensemble.energy(i) - startEnergy[i]));
+
+                    if (Double.isNaN(flipTime[i])
+                            && (a1 > Math.PI || a2 > Math.PI)) {
+                        flipTime[i] = time;
+                    }
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                result.index = first + i;
+                result.values = values[i];
+                ensemble.getMemberState(i, result.finalState);
+                result.maxInnerAngle = maxInner[i];
+                result.maxOuterAngle = maxOuter[i];
+                result.energyError = energyError[i];
+                result.flipTime = flipTime[i];
+                listener.result(result);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("a1:" + ranges[0]);
+        String[] names = { "a2", "l1", "l2", "m1", "m2", "k1", "k2" };
+        for (int i = 0; i < names.length; i++) {
+            sb.append(", " + names[i] + ":" + ranges[i + 1]);
+        }
+        return sb.toString();
+    }
+
+}
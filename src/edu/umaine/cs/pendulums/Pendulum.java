@@ -21,7 +21,7 @@ import com.sun.j3d.utils.geometry.Cylinder;
  * @author Mark Royer
  * 
  */
-public class Pendulum {
+public class Pendulum implements PendulumView {
 
     /**
      * All of the graphical components of a pendulum
@@ -380,7 +380,8 @@ public class Pendulum {
         translateRodDownVector.set(0, -this.length / 2., 0);
         translateRodDown.setTranslation(translateRodDownVector);
 
-        stretchRod.setScale(new Vector3d(1, this.length, 1));
+        stretchRodVector.set(1, this.length, 1);
+        stretchRod.setScale(stretchRodVector);
         stretchRodGroup.setTransform(stretchRod);
         translateRodDownGroup.setTransform(translateRodDown);
 
@@ -389,11 +390,13 @@ public class Pendulum {
         finalRotateGroup.setTransform(trans);
     }
 
-    // Used for transforming the pendulum's rod and head
+    // Used for transforming the pendulum's rod and head, reused so that
+    // updating the pendulum every step allocates nothing
     
     private Transform3D trans = new Transform3D();
     private Vector3d translateRodDownVector = new Vector3d();
     private Vector3d pHeadTranslateVector = new Vector3d();
+    private Vector3d stretchRodVector = new Vector3d();
 
     /**
      * @return Angle of pendulum in radians
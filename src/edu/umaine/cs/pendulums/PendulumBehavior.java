@@ -59,9 +59,28 @@ public interface PendulumBehavior extends XPSYS {
      */
     public void setRodLength(int rodIndex, double length);
 
+    /**
+     * Copy the angles and lengths that were set since the last call into the
+     * state of a running simulation. Called by the simulation thread between
+     * steps.
+     * 
+     * @param x
+     *            The current values, updated in place
+     * @return true iff the state or a parameter was changed, so the
+     *         derivative at <code>x</code> has to be evaluated again
+     */
+    public boolean applyEdits(double[] x);
+
     /**
      * @return The sum of all the rod lengths for this pendulum
      */
     public double getTotalLength();
 
+    /**
+     * @return The separable form of this model's equations, or null if the
+     *         model can only be integrated by a general method such as
+     *         {@link RK4Stepper}
+     */
+    public SeparableSystem getSeparableForm();
+
 }
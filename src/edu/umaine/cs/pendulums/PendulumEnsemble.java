@@ -0,0 +1,224 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Many pendulums of the same kind stored as a structure of arrays. Each state
+ * variable has its own array indexed by member, so the right hand side can be
+ * evaluated for all members in tight loops. Every member has its own masses,
+ * lengths and spring constants. All members share a single time, so variable
+ * <code>v</code> of the ensemble corresponds to <code>x[v + 1]</code> of the
+ * matching {@link XPSYS} model.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public abstract class PendulumEnsemble {
+
+    static final double g = 9.8;
+
+    /**
+     * The number of pendulums
+     */
+    protected int size;
+
+    /**
+     * The state of every member, indexed [variable][member]
+     */
+    protected double[][] x;
+
+    /**
+     * The time shared by all members
+     */
+    private double time;
+
+    /**
+     * Whether the right hand side is evaluated with the Vector API
+     */
+    protected boolean vectorized = isVectorApiAvailable();
+
+    /**
+     * Set the system property <code>pendulums.vector</code> to false to
+     * never use the Vector API.
+     */
+    private static final boolean VECTOR_API_AVAILABLE = Boolean
+            .parseBoolean(System.getProperty("pendulums.vector", "true"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector")
+                    .isPresent();
+
+    /**
+     * Create an ensemble with all of its state set to zero.
+     * 
+     * @param size
+     *            The number of pendulums
+     * @param numberOfVariables
+     *            The number of state variables of each pendulum
+     */
+    protected PendulumEnsemble(int size, int numberOfVariables) {
+        this.size = size;
+        this.x = new double[numberOfVariables][size];
+    }
+
+    /**
+     * Calculates the derivatives of the members in [from, to).
+     * 
+     * @param x
+     *            The state of every member, indexed [variable][member]
+     * @param f
+     *            Where the derivatives are stored, indexed
+     *            [variable][member]
+     * @param from
+     *            The first member, inclusive
+     * @param to
+     *            The last member, exclusive
+     */
+    public abstract void derivatives(double[][] x, double[][] f, int from,
+            int to);
+
+    /**
+     * Sets the parameters and the initial state of a member.
+     * 
+     * @param member
+     *            The member's index
+     * @param values
+     *            The values to start the member with
+     */
+    public abstract void setMember(int member, InitValues values);
+
+    /**
+     * @param member
+     *            The member's index
+     * @return The total mechanical energy of the member
+     */
+    public abstract double energy(int member);
+
+    /**
+     * Where a member's masses are, in the plane it swings in, with the pivot
+     * at the origin and y pointing up.
+     * 
+     * @param member
+     *            The member's index
+     * @param out
+     *            Where the inner mass's x and y followed by the outer mass's
+     *            x and y are stored
+     */
+    public abstract void positions(int member, double[] out);
+
+    /**
+     * @return The state variable holding the inner rod's angle (radians)
+     */
+    public abstract int getInnerAngleVariable();
+
+    /**
+     * @return The state variable holding the outer rod's angle (radians)
+     */
+    public abstract int getOuterAngleVariable();
+
+    /**
+     * The Vector API is an incubator module, so it is only available when the
+     * program is started with <code>--add-modules jdk.incubator.vector</code>.
+     * 
+     * @return true iff the SIMD right hand sides can be used
+     */
+    public static boolean isVectorApiAvailable() {
+        return VECTOR_API_AVAILABLE;
+    }
+
+    /**
+     * Choose between the SIMD and the scalar right hand side. Asking for the
+     * SIMD version when the Vector API is not available leaves the scalar
+     * version in use.
+     * 
+     * @param vectorized
+     *            true to use the Vector API
+     * @return true iff the SIMD right hand side is now in use
+     */
+    public boolean setVectorized(boolean vectorized) {
+        this.vectorized = vectorized && isVectorApiAvailable();
+        return this.vectorized;
+    }
+
+    /**
+     * @return true iff the right hand side is evaluated with the Vector API
+     */
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * @return The number of pendulums
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of state variables of each pendulum
+     */
+    public int getNumberOfVariables() {
+        return x.length;
+    }
+
+    /**
+     * @return The state of every member, indexed [variable][member]. This is
+     *         the array the ensemble is stepped in, not a copy.
+     */
+    public double[][] getState() {
+        return x;
+    }
+
+    /**
+     * @param variable
+     *            The state variable
+     * @return The values of the variable for every member. This is the array
+     *         the ensemble is stepped in, not a copy.
+     */
+    public double[] getVariable(int variable) {
+        return x[variable];
+    }
+
+    /**
+     * Copies a member's state in the layout used by the matching
+     * {@link XPSYS} model, with the time in x[0].
+     * 
+     * @param member
+     *            The member's index
+     * @param out
+     *            Where the state is stored
+     */
+    public void getMemberState(int member, double[] out) {
+        out[0] = time;
+        for (int v = 0; v < x.length; v++) {
+            out[v + 1] = x[v][member];
+        }
+    }
+
+    /**
+     * Sets a member's state from the layout used by the matching
+     * {@link XPSYS} model. The time in x[0] is ignored.
+     * 
+     * @param member
+     *            The member's index
+     * @param in
+     *            The new state
+     */
+    public void setMemberState(int member, double[] in) {
+        for (int v = 0; v < x.length; v++) {
+            x[v][member] = in[v + 1];
+        }
+    }
+
+    /**
+     * @return The time shared by all members
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * @param time
+     *            The time shared by all members
+     */
+    public void setTime(double time) {
+        this.time = time;
+    }
+
+}
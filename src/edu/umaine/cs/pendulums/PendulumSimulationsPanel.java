@@ -21,6 +21,7 @@ import java.awt.event.WindowEvent;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
+import java.util.logging.Logger;
 
 import javax.media.j3d.Alpha;
 import javax.media.j3d.BadTransformException;
@@ -28,6 +29,7 @@ import javax.media.j3d.BoundingSphere;
 import javax.media.j3d.BranchGroup;
 import javax.media.j3d.Canvas3D;
 import javax.media.j3d.DirectionalLight;
+import javax.media.j3d.Group;
 import javax.media.j3d.RotationInterpolator;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
@@ -45,6 +47,7 @@ import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JSpinner;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -72,6 +75,31 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
      */
     private static final long serialVersionUID = 445689538693254936L;
 
+    private static final Logger LOGGER = Logger
+            .getLogger(PendulumSimulationsPanel.class.getName());
+
+    /**
+     * The simulation's time step
+     */
+    private static final double TIME_STEP = 0.003;
+
+    /**
+     * How long to wait for the old simulation to finish before a new one is
+     * started (ms)
+     */
+    private static final long FINISH_DEADLINE = 500;
+
+    /**
+     * RK4 is unstable for oscillations with h * omega larger than this
+     */
+    private static final double RK4_STABILITY_LIMIT = 2 * Math.sqrt(2);
+
+    /**
+     * The most sub steps the springs of a double spring pendulum are given
+     * before switching to an implicit method
+     */
+    private static final int MAX_SUBSTEPS = 16;
+
     /**
      * Contains radio buttons for the simulation type.
      */
@@ -188,6 +216,33 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
      */
     private Canvas3D currentCanvas;
 
+    /**
+     * The universe every pendulum is shown in. It is created once and only
+     * the pendulum's branch is swapped when the model changes.
+     */
+    private SimpleUniverse universe;
+
+    /**
+     * The canvas the universe is drawn on.
+     */
+    private Canvas3D canvas;
+
+    /**
+     * Lets the user spin the view.
+     */
+    private OrbitBehavior orbit;
+
+    /**
+     * The group the current pendulum's branch is attached to.
+     */
+    private TransformGroup spinner;
+
+    /**
+     * The current pendulum and the behavior that draws it, detached when the
+     * model changes.
+     */
+    private BranchGroup pendulumBranch;
+
     /**
      * The graphical representation of an x,y and z axis.
      */
@@ -221,9 +276,30 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
     private JSpinner simulationSpeed;
 
     /**
-     * The thread the current simulation is being run in.
+     * If checked, the simulation runs as fast as possible instead of at the
+     * speed in the spinner.
+     */
+    private JCheckBox warpSimulation;
+
+    /**
+     * Shows how fast the simulation is running and the simulated time.
      */
-    private Thread currentThread;
+    private JLabel clockLabel;
+
+    /**
+     * Updates the clock label a few times a second.
+     */
+    private Timer clockTimer;
+
+    /**
+     * Runs the simulations, one at a time.
+     */
+    private SimulationExecutor simulations = new SimulationExecutor();
+
+    /**
+     * The current simulation as it is being run, null until it is started.
+     */
+    private SimulationExecutor.Run currentRun;
 
     /**
      * The calculations for how the pendulum moves.
@@ -250,10 +326,11 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
     public static void main(String[] args) {
         Frame frame = new Frame("Pendulum Simulations");
 
-        PendulumSimulationsPanel ex = new PendulumSimulationsPanel();
+        final PendulumSimulationsPanel ex = new PendulumSimulationsPanel();
         frame.add(ex);
         frame.addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
+                ex.dispose();
                 System.exit(0);
             }
         });
@@ -347,7 +424,7 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
         addButton(bottomPanel, resetButton);
         resetButton.addActionListener(this);
 
-        JPanel bottomRight = new JPanel(new GridLayout(2, 2));
+        JPanel bottomRight = new JPanel(new GridLayout(3, 2));
 
         showAxis = new JCheckBox("Show Axis", true);
         bottomRight.add(showAxis);
@@ -364,6 +441,16 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
         simulationSpeed = addSpinner(bottomRight, 1, "Speed");
         simulationSpeed.setModel(new SpinnerNumberModel(8, 1, 10, 1));
 
+        warpSimulation = new JCheckBox("Warp", false);
+        bottomRight.add(warpSimulation);
+        warpSimulation.addItemListener(this);
+
+        clockLabel = new JLabel();
+        bottomRight.add(clockLabel);
+
+        clockTimer = new Timer(250, this);
+        clockTimer.start();
+
         bottomPanel.add(bottomRight);
 
         simplePendulum.setSelected(true);
@@ -476,13 +563,12 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
     }
 
     /**
-     * Create the objects that will be in the scene.
+     * Create the objects that stay in the scene whatever the model. The
+     * pendulums are attached to {@link #spinner} later.
      * 
-     * @param pendulum
-     *            The pendulum that will be placed in the scene
      * @return The entire scene
      */
-    public BranchGroup createSceneGraph(BranchGroup pendulum) {
+    public BranchGroup createSceneGraph() {
         // Create the root of the branch graph
         BranchGroup objRoot = new BranchGroup();
 
@@ -491,10 +577,10 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
 
         // objRoot.addChild(objRotate);
 
-        TransformGroup spinner = new TransformGroup();
+        spinner = new TransformGroup();
         spinner.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
-
-        spinner.addChild(pendulum);
+        spinner.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+        spinner.setCapability(Group.ALLOW_CHILDREN_WRITE);
 
         objRotate.addChild(spinner);
 
@@ -547,55 +633,134 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
     }
 
     /**
-     * Creates a new 3d environment to display the simulation.
+     * Create the universe, its canvas and the parts of the scene that don't
+     * depend on the model.
+     */
+    private void createUniverse() {
+        GraphicsConfiguration config = SimpleUniverse
+                .getPreferredConfiguration();
+
+        canvas = new Canvas3D(config);
+        canvas.addKeyListener(this);
+        canvas.addMouseListener(this);
+
+        // SimpleUniverse is a Convenience Utility class
+        universe = new SimpleUniverse(canvas);
+
+        universe.getViewer().getView().setBackClipDistance(100);
+
+        // Allow the user to click on the scene and spin the pendulum.
+        orbit = new OrbitBehavior(canvas, OrbitBehavior.REVERSE_ROTATE);
+        BoundingSphere bounds = new BoundingSphere(new Point3d(0.0, 0.0, 0.0),
+                200.0);
+        orbit.setSchedulingBounds(bounds);
+        universe.getViewingPlatform().setViewPlatformBehavior(orbit);
+
+        universe.addBranchGraph(createSceneGraph());
+    }
+
+    /**
+     * Shows a pendulum in the 3d environment, replacing the one that was
+     * there. The universe is created the first time and reused afterwards.
      * 
      * @param function
      *            How the pendulum will behave
      * @param pbg
      *            The scene
-     * @return The newly created 3d environment
+     * @return The 3d environment
      */
     public Canvas3D createPendulumApp(PendulumBehavior function, BranchGroup pbg) {
-        setLayout(new BorderLayout());
-        GraphicsConfiguration config = SimpleUniverse
-                .getPreferredConfiguration();
-
-        Canvas3D canvas3D = new Canvas3D(config);
-
-        BranchGroup scene = createSceneGraph(pbg);
-
-        // SimpleUniverse is a Convenience Utility class
-        SimpleUniverse simpleU = new SimpleUniverse(canvas3D);
 
-        simpleU.getViewer().getView().setBackClipDistance(100);
+        if (universe == null) {
+            createUniverse();
+        }
 
         setInitialConditions(function);
 
         // Move the view back proportional to the length of the pendulum's rods.
-        simpleU.getViewingPlatform().setNominalViewingTransform();
         Transform3D t3d = new Transform3D();
         t3d.set(new Vector3d(0.0, 0, Math.sqrt(4 * Math.pow(2.6 * function
                 .getTotalLength(), 2))));
-        simpleU.getViewingPlatform().getViewPlatformTransform().setTransform(
-                t3d);
+        orbit.setHomeTransform(t3d);
+        orbit.goHome();
+
+        currentSimulation = new RK4SYS(function, createStepper(function,
+                TIME_STEP), 0, TIME_STEP, RK4SYS.RUNINDEFINATELY,
+                getSimulationSpeed());
+        currentSimulation.setWarp(warpSimulation.isSelected());
+
+        // Draw the integrator's latest states once per frame
+        FrameUpdateBehavior frameUpdate = new FrameUpdateBehavior(function,
+                currentSimulation);
+        frameUpdate.setSchedulingBounds(new BoundingSphere(new Point3d(0.0,
+                0.0, 0.0), 200.0));
+
+        BranchGroup branch = new BranchGroup();
+        branch.setCapability(BranchGroup.ALLOW_DETACH);
+        branch.addChild(pbg);
+        branch.addChild(frameUpdate);
+
+        if (pendulumBranch != null) {
+            pendulumBranch.detach();
+        }
+        spinner.addChild(branch);
+        pendulumBranch = branch;
 
-        // Allow the user to click on the scene and spin the pendulum.
-        OrbitBehavior orbit = new OrbitBehavior(simpleU.getCanvas(),
-                OrbitBehavior.REVERSE_ROTATE);
-        BoundingSphere bounds = new BoundingSphere(new Point3d(0.0, 0.0, 0.0),
-                200.0);
-        orbit.setSchedulingBounds(bounds);
-        simpleU.getViewingPlatform().setViewPlatformBehavior(orbit);
+        updateRunSimulation();
+
+        return canvas;
+    }
+
+    /**
+     * Choose the integrator for the values in the spinners. Springs so stiff
+     * that RK4 would be unstable at the given time step are sub stepped with
+     * a {@link MultirateStepper} if the model allows it and a few sub steps
+     * are enough, and integrated with the L-stable {@link Rosenbrock23}
+     * otherwise.
+     * 
+     * @param function
+     *            The way that the pendulum moves
+     * @param dt
+     *            The time step
+     * @return The integrator to use, null for the default RK4
+     */
+    private Stepper createStepper(PendulumBehavior function, double dt) {
+
+        if (!(function instanceof SpringPendulum || function instanceof SpringDoublePendulum)) {
+            return null;
+        }
 
-        simpleU.addBranchGraph(scene);
+        double k = Math.max((Double) k1Spinner.getValue(), (Double) k2Spinner
+                .getValue());
+        double m1 = (Double) m1Spinner.getValue();
+        double m2 = (Double) m2Spinner.getValue();
 
-        currentSimulation = new RK4SYS(function, 0, 0.003,
-                RK4SYS.RUNINDEFINATELY, getSimulationSpeed());
+        // An upper bound on the frequency of the springs
+        double omega = Math.sqrt(2 * k * (1 / m1 + 1 / m2));
 
-        currentThread = new Thread(currentSimulation);
-        updateRunSimulation();
+        if (dt * omega <= RK4_STABILITY_LIMIT) {
+            return null;
+        }
+
+        if (function instanceof MultirateSystem) {
+
+            // Take sub steps with h * omega <= 1, well inside the stable range
+            int substeps = 2 * (int) Math.ceil(dt * omega / 2);
+
+            if (substeps <= MAX_SUBSTEPS) {
+                LOGGER.info("Stiff springs (h * omega = " + dt * omega
+                        + "), using " + MultirateStepper.class.getSimpleName()
+                        + " with " + substeps + " sub steps");
+                return new MultirateStepper((MultirateSystem) function,
+                        function.getInitX().length, substeps);
+            }
+        }
+
+        LOGGER.info("Stiff springs (h * omega = " + dt * omega + "), using "
+                + Rosenbrock23.class.getSimpleName());
 
-        return canvas3D;
+        return new Rosenbrock23(function, function.getInitX().length, 1e-4,
+                1e-4);
     }
 
     /**
@@ -629,20 +794,22 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
 
         Object source = e.getSource();
 
-        if (source == simplePendulum) {
-            currentSimulation.requestToFinish();
+        if (source == clockTimer) {
+            updateClockLabel();
+        } else if (source == simplePendulum) {
+            finishSimulation();
             updateInitialValuesCombo(simplePendulum);
             setNewCanvas(createSimplePendulumCanvas());
         } else if (source == springPendulum) {
-            currentSimulation.requestToFinish();
+            finishSimulation();
             updateInitialValuesCombo(springPendulum);
             setNewCanvas(createSpringPendulumCanvas());
         } else if (source == doublePendulum) {
-            currentSimulation.requestToFinish();
+            finishSimulation();
             updateInitialValuesCombo(doublePendulum);
             setNewCanvas(createDoublePendulumCanvas());
         } else if (source == doubleSpringPendulum) {
-            currentSimulation.requestToFinish();
+            finishSimulation();
             updateInitialValuesCombo(doubleSpringPendulum);
             setNewCanvas(createDoubleSpringPendulumCanvas());
         } else if (source == clearScreenButton) {
@@ -690,19 +857,46 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
 
         if (this.currentCanvas == null) {
             resetSimulation();
-        } else if (!this.currentThread.isAlive()
+        } else if (this.currentRun == null
                 && !this.currentSimulation.hasRequestToFinish()) {
-            this.currentThread.start();
+            this.currentRun = simulations.start(currentSimulation);
         } else {
             resetSimulation();
         }
     }
 
+    /**
+     * Stop the current simulation and wait for its thread to return, so that
+     * it never runs alongside the one that replaces it.
+     */
+    private void finishSimulation() {
+        currentSimulation.requestToFinish();
+        simulations.cancelAll(FINISH_DEADLINE);
+        currentRun = null;
+    }
+
+    /**
+     * Stop the simulation and release the universe and its native resources.
+     * The panel can't be used afterwards.
+     */
+    public void dispose() {
+        if (currentSimulation != null) {
+            currentSimulation.requestToFinish();
+        }
+        simulations.shutdown(FINISH_DEADLINE);
+        clockTimer.stop();
+
+        if (universe != null) {
+            universe.cleanup();
+            universe = null;
+        }
+    }
+
     /**
      * Restart the simulation based on the current values.
      */
     private void resetSimulation() {
-        currentSimulation.requestToFinish();
+        finishSimulation();
         runSimulation.setSelected(true);
 
         if (simplePendulum.isSelected()) {
@@ -724,6 +918,10 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
      */
     private void setNewCanvas(Canvas3D newCanvas) {
 
+        if (newCanvas == currentCanvas) {
+            return;
+        }
+
         if (currentCanvas != null) {
             canvasPanel.remove(currentCanvas);
         }
@@ -732,8 +930,6 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
 
         if (newCanvas != null) {
             canvasPanel.add(newCanvas);
-            currentCanvas.addKeyListener(this);
-            currentCanvas.addMouseListener(this);
         }
 
         canvasPanel.validate();
@@ -911,7 +1107,7 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
             k1Spinner.setValue(i.getK1());
             k2Spinner.setValue(i.getK2());
 
-            if (this.currentThread != null)
+            if (this.currentSimulation != null)
                 resetSimulation();
 
         } else if (showAxis.equals(source)) {
@@ -920,9 +1116,31 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
             setRotate(rotateAxis.isSelected());
         } else if (runSimulation.equals(source)) {
             updateRunSimulation();
+        } else if (warpSimulation.equals(source)) {
+            currentSimulation.setWarp(warpSimulation.isSelected());
         }
     }
 
+    /**
+     * Show the achieved warp factor and the simulated time as
+     * hours:minutes:seconds.
+     */
+    private void updateClockLabel() {
+
+        if (currentSimulation == null) {
+            return;
+        }
+
+        double time = currentSimulation.getSimulatedTime();
+        long hours = (long) (time / 3600);
+        long minutes = (long) (time / 60) % 60;
+        double seconds = time % 60;
+
+        clockLabel.setText(String.format("%.1fx %d:%02d:%04.1f",
+                currentSimulation.getAchievedTimeRatio(), hours, minutes,
+                seconds));
+    }
+
     /**
      * Runs the simulation if the run simulation check box is selected,
      * otherwise the simulation is paused.
@@ -976,6 +1194,8 @@ public class PendulumSimulationsPanel extends Panel implements ActionListener,
             System.exit(0);
         } else if (e.getKeyCode() == KeyEvent.VK_R) {
             resetOrStartSimulation();
+        } else if (e.getKeyCode() == KeyEvent.VK_N) {
+            currentSimulation.singleStep();
         }
 
     }
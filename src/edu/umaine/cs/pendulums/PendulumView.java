@@ -0,0 +1,38 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Something that shows a single pendulum. The models only ever set values on
+ * a view and never read them back, so they can be run without one, and
+ * without Java3D.
+ *
+ * @author Mark Royer
+ *
+ */
+public interface PendulumView {
+
+    /**
+     * Sets the length of the rod, keeping its angle.
+     *
+     * @param length
+     *            The rod length
+     */
+    public void setRodLength(double length);
+
+    /**
+     * Sets the angle of the rod, keeping its length.
+     *
+     * @param angle
+     *            The rod's angle from straight down (radians)
+     */
+    public void setPendulumHeadPosition(double angle);
+
+    /**
+     * Sets the location of the mass.
+     *
+     * @param hX
+     * @param hY
+     * @param hZ
+     */
+    public void setPendulumHeadPosition(double hX, double hY, double hZ);
+
+}
@@ -0,0 +1,233 @@
+package edu.umaine.cs.pendulums;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Records where trajectories of a model pass through a surface of section,
+ * such as theta1 = 0 with theta1dot > 0 for a {@link SpringPendulum},
+ * projected onto two of the model's variables, such as (r, rdot). The
+ * crossings are found with an {@link EventFunction} on a
+ * {@link DormandPrince45}, so the crossing state is interpolated rather than
+ * taken from the nearest step. Points are streamed into a {@link PointSink} in
+ * batches and never boxed.
+ *
+ * <p>
+ * When the section variable is an angle the section is taken modulo 2 pi, so
+ * every revolution counts.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class PoincareSection {
+
+    /**
+     * The number of points a trajectory collects before they are handed to
+     * the sink
+     */
+    static final int BATCH = 4096;
+
+    private XPSYS xpsysFunction;
+
+    private int numberOfVariables;
+
+    private int sectionVariable;
+
+    private double sectionValue;
+
+    private int direction;
+
+    private boolean angular;
+
+    private int uVariable;
+
+    private int vVariable;
+
+    private double absoluteTolerance = 1e-9;
+
+    private double relativeTolerance = 1e-9;
+
+    /**
+     * @param xpsysFunction
+     *            The model. It is shared by every trajectory, so its
+     *            parameters must not change while a section is computed.
+     * @param numberOfVariables
+     *            The length of the model's state array
+     * @param sectionVariable
+     *            The variable that defines the section
+     * @param sectionValue
+     *            The value of the variable on the section
+     * @param direction
+     *            {@link EventFunction#RISING} to only count crossings where
+     *            the variable is increasing, {@link EventFunction#FALLING}
+     *            where it is decreasing or {@link EventFunction#ANY}
+     * @param angular
+     *            true iff the section variable is an angle
+     * @param uVariable
+     *            The variable plotted along the first axis
+     * @param vVariable
+     *            The variable plotted along the second axis
+     */
+    public PoincareSection(XPSYS xpsysFunction, int numberOfVariables,
+            int sectionVariable, double sectionValue, int direction,
+            boolean angular, int uVariable, int vVariable) {
+        this.xpsysFunction = xpsysFunction;
+        this.numberOfVariables = numberOfVariables;
+        this.sectionVariable = sectionVariable;
+        this.sectionValue = sectionValue;
+        this.direction = direction;
+        this.angular = angular;
+        this.uVariable = uVariable;
+        this.vVariable = vVariable;
+    }
+
+    /**
+     * @param absoluteTolerance
+     *            Allowed absolute error per step, > 0
+     * @param relativeTolerance
+     *            Allowed relative error per step, >= 0
+     */
+    public void setTolerances(double absoluteTolerance,
+            double relativeTolerance) {
+        this.absoluteTolerance = absoluteTolerance;
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    /**
+     * Follow a single trajectory and stream its crossings into the sink.
+     *
+     * @param x0
+     *            The initial values, not modified
+     * @param endTime
+     *            The time to integrate to
+     * @param sink
+     *            Receives the points
+     * @return The number of crossings
+     * @throws IOException
+     *             If the sink could not store the points
+     */
+    public long run(double[] x0, double endTime, PointSink sink)
+            throws IOException {
+
+        final PointBuffer buffer = new PointBuffer(BATCH);
+        final long[] crossings = { 0 };
+        final IOException[] failure = { null };
+
+        DormandPrince45 integrator = new DormandPrince45(xpsysFunction,
+                numberOfVariables, absoluteTolerance, relativeTolerance);
+        integrator.addEventFunction(new EventFunction() {
+
+            public double g(double[] x) {
+                double d = x[sectionVariable] - sectionValue;
+                return angular ? Math.sin(d) : d;
+            }
+
+            public int getDirection() {
+                return direction;
+            }
+
+            public boolean isTerminal() {
+                // Only stop if the sink failed
+                return failure[0] != null;
+            }
+
+            public void eventOccurred(double[] x) {
+                // sin also crosses zero half a revolution away
+                if (!angular
+                        || Math.cos(x[sectionVariable] - sectionValue) > 0) {
+                    buffer.add(x[uVariable], x[vVariable]);
+                    crossings[0]++;
+
+                    // Empty a full buffer without stopping the integration
+                    if (buffer.size() == BATCH) {
+                        try {
+                            buffer.drainTo(sink);
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            }
+        });
+
+        double[] x = x0.clone();
+
+        integrator.advanceTo(x, x[0], endTime, endTime - x[0]);
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        buffer.drainTo(sink);
+
+        return crossings[0];
+    }
+
+    /**
+     * Follow many trajectories at once and stream all of their crossings into
+     * the sink. Each trajectory hands its points over in batches, so the
+     * points of different trajectories are interleaved in batches.
+     *
+     * @param initialStates
+     *            The initial values of each trajectory, not modified
+     * @param endTime
+     *            The time to integrate each trajectory to
+     * @param threads
+     *            The number of trajectories to integrate at once
+     * @param sink
+     *            Receives the points, one batch at a time
+     * @return The number of crossings
+     * @throws IOException
+     *             If the sink could not store the points
+     * @throws InterruptedException
+     *             If interrupted while waiting for the trajectories
+     */
+    public long runAll(double[][] initialStates, final double endTime,
+            int threads, final PointSink sink) throws IOException,
+            InterruptedException {
+
+        // Only one trajectory at a time may write to the sink
+        final PointSink shared = new PointSink() {
+            public void points(double[] uv, int count) throws IOException {
+                synchronized (sink) {
+                    sink.points(uv, count);
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        long crossings = 0;
+
+        try {
+            for (final double[] x0 : initialStates) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        return run(x0, endTime, shared);
+                    }
+                }));
+            }
+
+            for (Future<Long> future : futures) {
+                crossings += future.get();
+            }
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return crossings;
+    }
+
+}
@@ -0,0 +1,109 @@
+package edu.umaine.cs.pendulums;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A growable in-memory list of (u, v) points stored in a single primitive
+ * array.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class PointBuffer implements PointSink {
+
+    private double[] uv;
+
+    private int size;
+
+    /**
+     * Create an empty buffer with room for 1024 points.
+     */
+    public PointBuffer() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity
+     *            The number of points to make room for
+     */
+    public PointBuffer(int capacity) {
+        uv = new double[2 * Math.max(1, capacity)];
+    }
+
+    /**
+     * @param u
+     *            The first coordinate
+     * @param v
+     *            The second coordinate
+     */
+    public void add(double u, double v) {
+        if (2 * size == uv.length) {
+            uv = Arrays.copyOf(uv, 2 * uv.length);
+        }
+        uv[2 * size] = u;
+        uv[2 * size + 1] = v;
+        size++;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PointSink#points(double[], int)
+     */
+    public void points(double[] points, int count) {
+        if (2 * (size + count) > uv.length) {
+            uv = Arrays.copyOf(uv, Math.max(2 * uv.length, 2 * (size + count)));
+        }
+        System.arraycopy(points, 0, uv, 2 * size, 2 * count);
+        size += count;
+    }
+
+    /**
+     * Hand the points to another sink and empty the buffer.
+     * 
+     * @param sink
+     *            Where the points go
+     * @throws IOException
+     *             If the sink could not store the points
+     */
+    public void drainTo(PointSink sink) throws IOException {
+        if (size > 0) {
+            sink.points(uv, size);
+            size = 0;
+        }
+    }
+
+    /**
+     * @return The number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i
+     *            The point's index
+     * @return The first coordinate of the point
+     */
+    public double getU(int i) {
+        return uv[2 * i];
+    }
+
+    /**
+     * @param i
+     *            The point's index
+     * @return The second coordinate of the point
+     */
+    public double getV(int i) {
+        return uv[2 * i + 1];
+    }
+
+    /**
+     * Remove all of the points.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+}
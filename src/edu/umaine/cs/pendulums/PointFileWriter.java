@@ -0,0 +1,109 @@
+package edu.umaine.cs.pendulums;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streams (u, v) points into a binary file of little endian 32 bit floats, u0,
+ * v0, u1, v1, ..., 8 bytes per point with no header.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class PointFileWriter implements PointSink, Closeable {
+
+    private OutputStream out;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(
+            ByteOrder.LITTLE_ENDIAN);
+
+    private long count;
+
+    /**
+     * @param file
+     *            The file to write, replaced if it exists
+     * @throws IOException
+     *             If the file could not be opened
+     */
+    public PointFileWriter(File file) throws IOException {
+        out = new FileOutputStream(file);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PointSink#points(double[], int)
+     */
+    public void points(double[] uv, int n) throws IOException {
+        for (int i = 0; i < 2 * n; i++) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putFloat((float) uv[i]);
+        }
+        count += n;
+    }
+
+    private void flush() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * @return The number of points written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    /**
+     * Read a file written by this class.
+     * 
+     * @param file
+     *            The file to read
+     * @param sink
+     *            Receives the points
+     * @throws IOException
+     *             If the file could not be read
+     */
+    public static void read(File file, PointSink sink) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            double[] uv = new double[2 * 1024];
+            long remaining = file.length() / 8;
+
+            while (remaining > 0) {
+                int n = (int) Math.min(1024, remaining);
+                for (int i = 0; i < 2 * n; i++) {
+                    uv[i] = Float.intBitsToFloat(Integer.reverseBytes(in
+                            .readInt()));
+                }
+                sink.points(uv, n);
+                remaining -= n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+}
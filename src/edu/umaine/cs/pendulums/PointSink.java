@@ -0,0 +1,25 @@
+package edu.umaine.cs.pendulums;
+
+import java.io.IOException;
+
+/**
+ * Receives the points of a {@link PoincareSection} in batches, stored as
+ * (u, v) pairs one after another in a primitive array.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public interface PointSink {
+
+    /**
+     * @param uv
+     *            The points, u0, v0, u1, v1, ... The array is reused, so copy
+     *            anything that has to be kept.
+     * @param count
+     *            The number of points in the array
+     * @throws IOException
+     *             If the points could not be stored
+     */
+    public void points(double[] uv, int count) throws IOException;
+
+}
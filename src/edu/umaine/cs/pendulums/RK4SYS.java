@@ -1,12 +1,23 @@
 package edu.umaine.cs.pendulums;
 
-import javax.media.j3d.BadTransformException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
  * A representation of the Runge-Kutta Method of order 4 based on
  * Cheney/Kincaid, numerical mathematics and computing, 1985.
  * 
+ * <p>
+ * The simulation is controlled from other threads through volatile flags, so
+ * the loop never takes a lock. While paused the simulation thread is parked,
+ * and every control method unparks it, so pausing, resuming, single steps,
+ * finishing and changes of speed take effect right away. Interrupting the
+ * simulation thread is the same as {@link #requestToFinish()}.
+ * </p>
+ * 
  * @author Mark Royer
  */
 public class RK4SYS implements Runnable {
@@ -21,11 +32,55 @@ public class RK4SYS implements Runnable {
 
     private int nsteps;
 
-    private boolean finishRequested;
+    private volatile boolean finishRequested;
+
+    private volatile boolean pause = false;
+
+    /**
+     * The number of single steps requested while paused and not taken yet
+     */
+    private AtomicInteger singleSteps = new AtomicInteger();
 
-    private boolean pause = false;
+    /**
+     * The thread running the simulation, null until it starts
+     */
+    private volatile Thread runner;
 
-    private int delay;
+    private volatile int delay;
+
+    private Stepper stepper;
+
+    /**
+     * Keeps simulated time in step with the wall clock
+     */
+    private RealTimePacer pacer;
+
+    /**
+     * The simulated time after the last batch of steps
+     */
+    private volatile double simulatedTime;
+
+    /**
+     * The number of states kept for the renderer and other consumers
+     */
+    static final int FRAMES = 1024;
+
+    /**
+     * Where every state is published for the renderer and other consumers.
+     */
+    private StateRingBuffer states;
+
+    /**
+     * How far the wall clock is past the state <code>alphaSequence</code>
+     * towards the next one
+     */
+    private volatile double alpha;
+
+    /**
+     * The sequence number of the state <code>alpha</code> belongs to, -1
+     * while the two are being changed
+     */
+    private volatile long alphaSequence = -1;
 
     /**
      * Create a new RK4SYS object to operate on the given function.
@@ -39,8 +94,8 @@ public class RK4SYS implements Runnable {
      * @param nsteps
      *            The number of steps
      * @param delay
-     *            The amount of time in between each time through the loop.
-     *            Measured in milliseconds delay >= 0.
+     *            The amount of wall clock time each time step takes.
+     *            Measured in milliseconds delay > 0.
      */
     public RK4SYS(XPSYS xpsysFunction, double time, double dt, int nsteps,
             int delay) {
@@ -48,12 +103,56 @@ public class RK4SYS implements Runnable {
         this.time = time;
         this.dt = dt;
         this.nsteps = nsteps;
-        this.delay = delay;
+        this.states = new StateRingBuffer(FRAMES,
+                xpsysFunction.getInitX().length);
+        this.pacer = new RealTimePacer(dt, 1);
+        setDelay(delay);
+    }
+
+    /**
+     * Create a new RK4SYS object that advances the given function with the
+     * given stepper instead of the default {@link RK4Stepper}.
+     * 
+     * @param xpsysFunction
+     *            Functor of the problem to solve
+     * @param stepper
+     *            The integrator used to advance the function
+     * @param time
+     *            Initial time
+     * @param dt
+     *            The time step
+     * @param nsteps
+     *            The number of steps
+     * @param delay
+     *            The amount of wall clock time each time step takes.
+     *            Measured in milliseconds delay > 0.
+     */
+    public RK4SYS(XPSYS xpsysFunction, Stepper stepper, double time,
+            double dt, int nsteps, int delay) {
+        this(xpsysFunction, time, dt, nsteps, delay);
+        this.stepper = stepper;
     }
 
     /**
      * Runge-Kutta Method of order 4 from Cheney/Kincaid. Also based on notes
-     * from COS 515.
+     * from COS 515. The integration itself is done by a headless
+     * {@link Stepper}; this loop only adds the real-time pacing needed by the
+     * graphical simulation.
+     * 
+     * <p>
+     * A {@link RealTimePacer} decides how many fixed steps of
+     * <code>dt</code> are owed to the wall clock, and the function is
+     * advanced by that many steps before the thread is parked until the next
+     * one is due. Every state is published to a {@link StateRingBuffer}
+     * without locking, and the renderer draws between the latest two once per
+     * frame.
+     * </p>
+     * 
+     * <p>
+     * In warp mode the steps are taken as fast as possible and the renderer
+     * draws only the latest state once per frame, so long simulated times can
+     * be reached quickly.
+     * </p>
      * 
      * @param time
      *            Current time
@@ -71,96 +170,184 @@ public class RK4SYS implements Runnable {
     public void rk4sys(double time, double[] x, double dt, int nstep,
             XPSYS xpsysFunction) {
 
-        double dt2 = .5 * dt;
-        int numberOfVariables = x.length;
-        double[] y = new double[numberOfVariables];
-        double[] f1 = new double[numberOfVariables];
-        double[] f2 = new double[numberOfVariables];
-        double[] f3 = new double[numberOfVariables];
-        double[] f4 = new double[numberOfVariables];
+        if (stepper == null || stepper.getNumberOfVariables() != x.length) {
+            stepper = new RK4Stepper(xpsysFunction, x.length);
+        }
 
-        boolean done = false;
+        // Changes made to the model while running are applied between steps
+        PendulumBehavior behavior = null;
+        if (xpsysFunction instanceof PendulumBehavior) {
+            behavior = (PendulumBehavior) xpsysFunction;
+        }
 
-        for (int k = 0; !done; k++) {
+        runner = Thread.currentThread();
 
-            if (isPaused()) {
-                sleep();
-            }
+        if (!states.publish(time, x)) {
+            finishRequested = true;
+        }
+        setAlpha(0);
 
-            xpsysFunction.xpsys(x, f1);
+        pacer.start();
 
-            for (int i = 0; i < numberOfVariables; i++) {
-                y[i] = x[i] + dt2 * f1[i];
-            }
+        boolean done = false;
 
-            xpsysFunction.xpsys(y, f2);
+        for (int k = 0; !done;) {
+
+            if (pause) {
+
+                while (pause && !finishRequested) {
+
+                    if (singleSteps.get() > 0) {
+                        singleSteps.decrementAndGet();
+                        if (behavior != null) {
+                            if (behavior.applyEdits(x)) {
+                                stepper.invalidate();
+                            }
+                        }
+                        stepper.step(x, dt);
+                        time += dt;
+                        k++;
+                        if (!states.publish(time, x)) {
+                            finishRequested = true;
+                        }
+                        simulatedTime = time;
+                        setAlpha(1);
+
+                        if (nstep > 0) {
+                            if (k >= nstep) {
+                                requestToFinish();
+                            }
+                        }
+                    } else {
+                        LockSupport.park(this);
+                        if (Thread.interrupted()) {
+                            finishRequested = true;
+                        }
+                    }
+                }
 
-            for (int i = 0; i < numberOfVariables; i++) {
-                y[i] = x[i] + dt2 * f2[i];
+                pacer.start();
             }
 
-            xpsysFunction.xpsys(y, f3);
+            int due = pacer.stepsDue();
+            int steps = 0;
 
-            for (int i = 0; i < numberOfVariables; i++) {
-                y[i] = x[i] + dt * f3[i];
-            }
+            while (steps < due && !done && !pause) {
 
-            xpsysFunction.xpsys(y, f4);
+                if (behavior != null) {
+                    if (behavior.applyEdits(x)) {
+                        stepper.invalidate();
+                    }
+                }
 
-            for (int i = 0; i < numberOfVariables; i++) {
-                x[i] = x[i] + dt * (f1[i] + 2.0 * (f2[i] + f3[i]) + f4[i])
-                        / 6.0;
-            }
+                stepper.step(x, dt);
 
-            time += dt * nstep;
+                time += dt;
+                if (!states.publish(time, x)) {
+                    finishRequested = true;
+                }
+                steps++;
+                k++;
 
-            try {
-                Thread.sleep(getDelay());
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+                if (nstep > 0) {
+                    if (k >= nstep) {
+                        requestToFinish();
+                    }
+                }
 
-            try {
-                xpsysFunction.updateGeometry(x);
-            } catch (BadTransformException e) {
-                errorInCalculationMessage();
+                if (finishRequested) {
+                    done = true;
+                }
             }
 
-            if (nstep > 0) {
-                if (k >= nstep) {
-                    requestToFinish();
-                }
+            pacer.stepped(steps);
+            simulatedTime = time;
+            setAlpha(pacer.getAlpha());
+
+            if (Thread.interrupted()) {
+                finishRequested = true;
             }
 
-            if (hasRequestToFinish()) {
+            if (finishRequested) {
                 done = true;
+            } else {
+                pacer.waitForNextStep();
             }
+        }
+
+        runner = null;
+    }
+
+    /**
+     * @return Where every state of this simulation is published
+     */
+    public StateRingBuffer getStates() {
+        return states;
+    }
+
+    /**
+     * Pair alpha with the latest state. Only called by the simulation thread.
+     * 
+     * @param alpha
+     *            How far the wall clock is past the latest state
+     */
+    private void setAlpha(double alpha) {
+        alphaSequence = -1;
+        this.alpha = alpha;
+        alphaSequence = states.getPublished() - 1;
+    }
 
+    /**
+     * @param sequence
+     *            The sequence number of a published state
+     * @return How far the wall clock is past that state towards the next one,
+     *         0 <= alpha <= 1. 1 if later states have been published, and 0
+     *         if it is the latest state but its alpha isn't known yet.
+     */
+    public double getAlpha(long sequence) {
+
+        long before = alphaSequence;
+        double a = alpha;
+
+        if (before == sequence && alphaSequence == sequence) {
+            return a;
         }
+
+        return sequence < states.getPublished() - 1 ? 1 : 0;
     }
 
     /**
      * Display a message if a NaN is encountered and quit calculations
-     * gracefully.
+     * gracefully. The simulation is asked to finish right away, and the
+     * message is shown later by the event dispatch thread, so this can be
+     * called from any thread without blocking it.
      */
     public void errorInCalculationMessage() {
-        JOptionPane.showMessageDialog(null, "Error in calculations.", "Error",
-                JOptionPane.ERROR_MESSAGE);
+
         requestToFinish();
+
+        SwingUtilities.invokeLater(new Runnable() {
+
+            public void run() {
+                JOptionPane.showMessageDialog(null, "Error in calculations.",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
 
     /**
      * @return true iff RK4SYS has been requested to stop
      */
-    public synchronized boolean hasRequestToFinish() {
+    public boolean hasRequestToFinish() {
         return this.finishRequested;
     }
 
     /**
      * Tells this RK4SYS to stop calculations.
      */
-    public synchronized void requestToFinish() {
+    public void requestToFinish() {
         this.finishRequested = true;
+        wakeUp();
     }
 
     /*
@@ -176,52 +363,124 @@ public class RK4SYS implements Runnable {
     /**
      * Make calculations stop momementarily.
      */
-    public synchronized void pause() {
+    public void pause() {
+        // A single step requested while resuming must not fire now
+        singleSteps.set(0);
         this.pause = true;
     }
 
     /**
      * If calculations have been paused, then they will continue from the last
-     * calculation.
+     * calculation. Single steps that haven't been taken yet are dropped.
      */
-    public synchronized void resume() {
+    public void resume() {
         this.pause = false;
+        singleSteps.set(0);
+        wakeUp();
+    }
+
+    /**
+     * Take a single step while paused. Requests made while running are
+     * ignored, and a bounded simulation finishes once it has taken all of its
+     * steps, single or not.
+     */
+    public void singleStep() {
+        if (pause) {
+            singleSteps.incrementAndGet();
+            wakeUp();
+        }
     }
 
     /**
      * @return true iff calculations are momentarily halted
      */
-    public synchronized boolean isPaused() {
+    public boolean isPaused() {
         return this.pause;
     }
 
     /**
-     * Cause the thread to wait momentarily.
+     * Unpark the simulation thread so it notices a change right away.
      */
-    private void sleep() {
-        try {
-            while (isPaused()) {
-                Thread.sleep(250);
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    private void wakeUp() {
+        Thread thread = runner;
+        if (thread != null) {
+            LockSupport.unpark(thread);
         }
     }
 
     /**
-     * The number of milliseconds between each calculation loop.
+     * The number of milliseconds of wall clock time each time step takes.
      * 
      * @param speed
-     *            Must be >= 0
+     *            Must be > 0
      */
-    public synchronized void setDelay(int speed) {
+    public void setDelay(int speed) {
+        assert speed > 0 : "requires: speed = " + speed;
+
         this.delay = speed;
+        setTimeRatio(dt * 1000 / speed);
     }
 
     /**
-     * @return The delay between loop calculations in milliseconds.
+     * @return The wall clock time each time step takes in milliseconds.
      */
-    public synchronized int getDelay() {
+    public int getDelay() {
         return this.delay;
     }
+
+    /**
+     * Set how fast the simulation runs. Unlike {@link #setDelay(int)} any
+     * ratio can be reached, not just whole milliseconds per step.
+     * 
+     * @param ratio
+     *            The simulated seconds that should pass per second of wall
+     *            clock time, > 0
+     */
+    public void setTimeRatio(double ratio) {
+        pacer.setRatio(ratio);
+        wakeUp();
+    }
+
+    /**
+     * @return The simulated seconds that should pass per second of wall clock
+     *         time
+     */
+    public double getTimeRatio() {
+        return pacer.getRatio();
+    }
+
+    /**
+     * @return The simulated seconds that actually passed per second of wall
+     *         clock time recently, lower than {@link #getTimeRatio()} when
+     *         the steps can't keep up
+     */
+    public double getAchievedTimeRatio() {
+        return pacer.getAchievedRatio();
+    }
+
+    /**
+     * Run faster than real time or go back to the time ratio, without
+     * restarting the simulation.
+     * 
+     * @param warp
+     *            true to take steps as fast as possible
+     */
+    public void setWarp(boolean warp) {
+        pacer.setWarp(warp);
+        wakeUp();
+    }
+
+    /**
+     * @return true iff the steps are being taken as fast as possible
+     */
+    public boolean isWarp() {
+        return pacer.isWarp();
+    }
+
+    /**
+     * @return The simulated time reached by the integrator
+     */
+    public double getSimulatedTime() {
+        return simulatedTime;
+    }
 }
@@ -0,0 +1,122 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * A headless Runge-Kutta Method of order 4 based on Cheney/Kincaid, numerical
+ * mathematics and computing, 1985. All scratch space is allocated when the
+ * stepper is created, so stepping never allocates.
+ * 
+ * @author Mark Royer
+ */
+public class RK4Stepper implements Stepper {
+
+    private XPSYS xpsysFunction;
+
+    private int numberOfVariables;
+
+    private double[] y;
+
+    private double[] f1;
+
+    private double[] f2;
+
+    private double[] f3;
+
+    private double[] f4;
+
+    /**
+     * Create a new stepper for the given function.
+     * 
+     * @param xpsysFunction
+     *            Functor of the problem to solve
+     * @param numberOfVariables
+     *            The length of the state arrays that will be stepped
+     */
+    public RK4Stepper(XPSYS xpsysFunction, int numberOfVariables) {
+        this.xpsysFunction = xpsysFunction;
+        this.numberOfVariables = numberOfVariables;
+        this.y = new double[numberOfVariables];
+        this.f1 = new double[numberOfVariables];
+        this.f2 = new double[numberOfVariables];
+        this.f3 = new double[numberOfVariables];
+        this.f4 = new double[numberOfVariables];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#step(double[], double)
+     */
+    public void step(double[] x, double dt) {
+
+        double dt2 = .5 * dt;
+
+        xpsysFunction.xpsys(x, f1);
+
+        for (int i = 0; i < numberOfVariables; i++) {
+            y[i] = x[i] + dt2 * f1[i];
+        }
+
+        xpsysFunction.xpsys(y, f2);
+
+        for (int i = 0; i < numberOfVariables; i++) {
+            y[i] = x[i] + dt2 * f2[i];
+        }
+
+        xpsysFunction.xpsys(y, f3);
+
+        for (int i = 0; i < numberOfVariables; i++) {
+            y[i] = x[i] + dt * f3[i];
+        }
+
+        xpsysFunction.xpsys(y, f4);
+
+        for (int i = 0; i < numberOfVariables; i++) {
+            x[i] = x[i] + dt * (f1[i] + 2.0 * (f2[i] + f3[i]) + f4[i]) / 6.0;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#stepN(double[], double, int)
+     */
+    public void stepN(double[] x, double dt, int n) {
+        for (int k = 0; k < n; k++) {
+            step(x, dt);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#advanceTo(double[], double, double,
+     *      double)
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt) {
+        while (time < endTime) {
+            double h = Math.min(dt, endTime - time);
+            step(x, h);
+            time += h;
+        }
+        return endTime;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#invalidate()
+     */
+    public void invalidate() {
+        // Nothing is kept between calls
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#getNumberOfVariables()
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+}
@@ -0,0 +1,322 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a fixed step simulation so that simulated time advances at a target
+ * ratio to wall clock time. The wall clock is read with
+ * {@link System#nanoTime()}, and between steps the simulation thread is
+ * parked until the deadline of the next step rather than sleeping for a whole
+ * number of milliseconds, so the pace doesn't depend on the granularity of
+ * the operating system's timer and any number of steps per second can be
+ * reached.
+ *
+ * <p>
+ * Each pass through the simulation loop asks {@link #stepsDue()} how many
+ * steps are owed and reports them with {@link #stepped(int)}. When the steps
+ * take longer than the wall clock allows, the pacer first limits each batch
+ * so frames keep being published, and once the simulation falls more than
+ * {@link #MAX_LAG} seconds behind it drops the excess and carries on from the
+ * present. The simulated time to wall time ratio that was actually achieved
+ * is published as {@link #getAchievedRatio()}.
+ * </p>
+ *
+ * <p>
+ * In warp mode the wall clock is ignored and the steps are handed out as
+ * fast as they can be taken, still in batches short enough for frames to be
+ * published in between. Leaving warp mode carries on at the target ratio from
+ * wherever the simulation has got to.
+ * </p>
+ *
+ * <p>
+ * The target ratio and warp mode may be changed from any thread; every other
+ * method must be called by the simulation thread.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class RealTimePacer {
+
+    /**
+     * The longest the simulation thread is parked at once (ns), so it reacts
+     * quickly to requests to pause or finish and the interpolation between
+     * steps is updated often.
+     */
+    static final long MAX_PARK = 2000000;
+
+    /**
+     * The most wall clock time (ns) a single batch of steps should take
+     */
+    static final long MAX_BATCH = 10000000;
+
+    /**
+     * How far behind the wall clock (seconds) the simulation may fall before
+     * the lost time is dropped
+     */
+    static final double MAX_LAG = 0.25;
+
+    /**
+     * The wall clock time (ns) the achieved ratio is measured over
+     */
+    static final long WINDOW = 500000000;
+
+    private double dt;
+
+    private volatile double ratio;
+
+    private volatile boolean warp;
+
+    /**
+     * Whether the current schedule was made in warp mode
+     */
+    private boolean scheduledWarp;
+
+    /**
+     * The ratio the current schedule was made with
+     */
+    private double scheduledRatio;
+
+    /**
+     * The wall clock time the schedule starts at
+     */
+    private long wallStart;
+
+    /**
+     * The simulated time, relative to the start of the pacer, at the start of
+     * the schedule
+     */
+    private double simulatedStart;
+
+    /**
+     * The simulated time since the start of the pacer
+     */
+    private double simulated;
+
+    /**
+     * When the current batch of steps was handed out
+     */
+    private long batchStart;
+
+    /**
+     * The average wall clock time of a step (ns), 0 until measured
+     */
+    private double stepNanos;
+
+    private double alpha;
+
+    private long windowStart;
+
+    private double windowSimulated;
+
+    private volatile double achievedRatio;
+
+    private volatile double droppedTime;
+
+    /**
+     * @param dt
+     *            The simulation's time step, > 0
+     * @param ratio
+     *            The simulated seconds that should pass per second of wall
+     *            clock time, > 0
+     */
+    public RealTimePacer(double dt, double ratio) {
+        assert dt > 0 : "requires: dt = " + dt;
+
+        this.dt = dt;
+        setRatio(ratio);
+        start();
+    }
+
+    /**
+     * Start the schedule over from the present without any steps owed, as
+     * after the simulation has been paused.
+     */
+    public void start() {
+        long now = System.nanoTime();
+        reschedule(now);
+        windowStart = now;
+        windowSimulated = 0;
+        alpha = 0;
+    }
+
+    private void reschedule(long now) {
+        scheduledRatio = ratio;
+        scheduledWarp = warp;
+        wallStart = now;
+        simulatedStart = simulated;
+    }
+
+    /**
+     * @param now
+     *            A wall clock time
+     * @return The simulated time that should have been reached by then
+     */
+    private double target(long now) {
+        return simulatedStart + (now - wallStart) * 1e-9 * scheduledRatio;
+    }
+
+    /**
+     * @return The number of steps that should be taken now, at least 0
+     */
+    public int stepsDue() {
+
+        long now = System.nanoTime();
+
+        if (warp != scheduledWarp) {
+            reschedule(now);
+        }
+
+        batchStart = now;
+
+        if (scheduledWarp) {
+            return stepNanos > 0 ? (int) Math.max(1, Math.min(MAX_BATCH
+                    / stepNanos, Integer.MAX_VALUE)) : 1;
+        }
+
+        if (ratio != scheduledRatio) {
+            // Carry on from the present at the new pace
+            simulatedStart = target(now);
+            wallStart = now;
+            scheduledRatio = ratio;
+        }
+
+        double owed = target(now) - simulated;
+        double maxOwed = MAX_LAG * scheduledRatio;
+
+        if (owed > maxOwed) {
+            simulatedStart -= owed - maxOwed;
+            droppedTime += owed - maxOwed;
+            owed = maxOwed;
+        }
+
+        long steps = (long) Math.floor(owed / dt);
+
+        if (stepNanos > 0) {
+            steps = Math.min(steps, Math.max(1, (long) (MAX_BATCH / stepNanos)));
+        }
+
+        return (int) Math.max(0, Math.min(steps, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Report the steps that were taken since {@link #stepsDue()}.
+     *
+     * @param steps
+     *            The number of steps taken, >= 0
+     */
+    public void stepped(int steps) {
+
+        long now = System.nanoTime();
+
+        if (steps > 0) {
+            double nanos = (double) (now - batchStart) / steps;
+            stepNanos = stepNanos == 0 ? nanos : 0.9 * stepNanos + 0.1
+                    * nanos;
+        }
+
+        simulated += steps * dt;
+        windowSimulated += steps * dt;
+
+        if (scheduledWarp) {
+            // Always draw the latest state
+            alpha = 1;
+        } else {
+            alpha = Math.max(0, Math.min(1, (target(now) - simulated) / dt));
+        }
+
+        if (now - windowStart >= WINDOW) {
+            achievedRatio = windowSimulated / ((now - windowStart) * 1e-9);
+            windowStart = now;
+            windowSimulated = 0;
+        }
+    }
+
+    /**
+     * @return How far the wall clock was past the last step towards the next
+     *         one when {@link #stepped(int)} was last called, 0 <= alpha <= 1
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Park the calling thread until the next step is due, or for at most
+     * {@link #MAX_PARK} nanoseconds. The thread may wake up earlier, so the
+     * number of steps due must be checked again afterwards. In warp mode
+     * the next step is always due.
+     */
+    public void waitForNextStep() {
+
+        if (scheduledWarp) {
+            return;
+        }
+
+        long deadline = wallStart
+                + (long) ((simulated + dt - simulatedStart) / scheduledRatio * 1e9);
+        long remaining = deadline - System.nanoTime();
+
+        if (remaining > 0) {
+            LockSupport.parkNanos(Math.min(remaining, MAX_PARK));
+        }
+    }
+
+    /**
+     * @param ratio
+     *            The simulated seconds that should pass per second of wall
+     *            clock time, > 0. It takes effect at the next step.
+     */
+    public void setRatio(double ratio) {
+        assert ratio > 0 : "requires: ratio = " + ratio;
+
+        this.ratio = ratio;
+    }
+
+    /**
+     * @return The simulated seconds that should pass per second of wall clock
+     *         time
+     */
+    public double getRatio() {
+        return ratio;
+    }
+
+    /**
+     * @param warp
+     *            true to run as fast as possible, false to keep to the target
+     *            ratio. It takes effect at the next step.
+     */
+    public void setWarp(boolean warp) {
+        this.warp = warp;
+    }
+
+    /**
+     * @return true iff the steps are taken as fast as possible
+     */
+    public boolean isWarp() {
+        return warp;
+    }
+
+    /**
+     * @return The simulated seconds that passed per second of wall clock time
+     *         over the last measurement window, 0 until the first window ends
+     */
+    public double getAchievedRatio() {
+        return achievedRatio;
+    }
+
+    /**
+     * @return The simulated time that was skipped because the simulation fell
+     *         too far behind
+     */
+    public double getDroppedTime() {
+        return droppedTime;
+    }
+
+    /**
+     * @return The time step
+     */
+    public double getTimeStep() {
+        return dt;
+    }
+
+}
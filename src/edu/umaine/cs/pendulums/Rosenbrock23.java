@@ -0,0 +1,396 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * A linearly implicit Rosenbrock method of order 2(3) based on Shampine and
+ * Reichelt, The MATLAB ODE Suite, 1997 (the method of MATLAB's ode23s). It is
+ * L-stable, so stiff springs such as the k = 800000 presets are integrated
+ * stably with steps far larger than the period of the spring, which makes
+ * explicit methods like {@link RK4Stepper} blow up. Instead of solving a
+ * nonlinear system each step it solves three linear systems with the same
+ * matrix I - h d J, where J is the Jacobian of the {@link XPSYS}.
+ *
+ * <p>
+ * The Jacobian is computed once per accepted step and reused when a step is
+ * rejected. It comes from the model if it implements {@link Jacobian} and is
+ * approximated with forward differences otherwise. The step size is chosen
+ * from the given tolerances like in {@link DormandPrince45}, and the
+ * <code>dt</code> passed to the {@link Stepper} methods is the largest step
+ * that will be taken.
+ * </p>
+ *
+ * @author Mark Royer
+ */
+public class Rosenbrock23 implements Stepper {
+
+    private static final double D = 1 / (2 + Math.sqrt(2));
+
+    private static final double E32 = 6 + Math.sqrt(2);
+
+    private static final double SAFETY = 0.8;
+
+    private static final double MIN_FACTOR = 0.2;
+
+    private static final double MAX_FACTOR = 5;
+
+    private XPSYS xpsysFunction;
+
+    private int numberOfVariables;
+
+    private double absoluteTolerance;
+
+    private double relativeTolerance;
+
+    private double[] f0, f1, f2, k1, k2, k3, y, yNew;
+
+    private double[][] jacobian;
+
+    private double[][] w;
+
+    private LUDecomposition lu;
+
+    /**
+     * The step size to try next, 0 if it has not been estimated yet.
+     */
+    private double h;
+
+    private long acceptedSteps;
+
+    private long rejectedSteps;
+
+    private long evaluations;
+
+    private long jacobianEvaluations;
+
+    /**
+     * Create a new integrator for the given function.
+     *
+     * @param xpsysFunction
+     *            Functor of the problem to solve
+     * @param numberOfVariables
+     *            The length of the state arrays that will be stepped
+     * @param absoluteTolerance
+     *            Allowed absolute error per step, > 0
+     * @param relativeTolerance
+     *            Allowed relative error per step, >= 0
+     */
+    public Rosenbrock23(XPSYS xpsysFunction, int numberOfVariables,
+            double absoluteTolerance, double relativeTolerance) {
+        assert absoluteTolerance > 0 : "requires: absoluteTolerance = "
+                + absoluteTolerance;
+        assert relativeTolerance >= 0 : "requires: relativeTolerance = "
+                + relativeTolerance;
+
+        this.xpsysFunction = xpsysFunction;
+        this.numberOfVariables = numberOfVariables;
+        this.absoluteTolerance = absoluteTolerance;
+        this.relativeTolerance = relativeTolerance;
+
+        int n = numberOfVariables;
+        f0 = new double[n];
+        f1 = new double[n];
+        f2 = new double[n];
+        k1 = new double[n];
+        k2 = new double[n];
+        k3 = new double[n];
+        y = new double[n];
+        yNew = new double[n];
+        jacobian = new double[n][n];
+        w = new double[n][n];
+        lu = new LUDecomposition(n);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#step(double[], double)
+     */
+    public void step(double[] x, double dt) {
+        advanceTo(x, 0, dt, dt);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#stepN(double[], double, int)
+     */
+    public void stepN(double[] x, double dt, int n) {
+        advanceTo(x, 0, dt * n, dt);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#advanceTo(double[], double, double,
+     *      double)
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt) {
+
+        if (time >= endTime) {
+            return endTime;
+        }
+
+        evaluate(x, f0);
+
+        if (h <= 0) {
+            h = dt;
+        }
+
+        boolean jacobianCurrent = false;
+
+        while (time < endTime) {
+
+            double step = Math.min(Math.min(h, dt), endTime - time);
+            boolean last = step == endTime - time;
+
+            if (!jacobianCurrent) {
+                computeJacobian(x);
+                jacobianCurrent = true;
+            }
+
+            double error = attemptStep(x, step);
+
+            if (error <= 1) {
+
+                double factor = error == 0 ? MAX_FACTOR : Math.min(MAX_FACTOR,
+                        SAFETY * Math.pow(error, -1 / 3.0));
+
+                // Don't let a step shortened to hit dt or the end time
+                // shrink the estimate for the following steps.
+                h = step < h ? Math.max(h, step * factor) : step * factor;
+                acceptedSteps++;
+
+                System.arraycopy(yNew, 0, x, 0, numberOfVariables);
+
+                // The derivative at the end of the step starts the next one
+                double[] tmp = f0;
+                f0 = f2;
+                f2 = tmp;
+
+                jacobianCurrent = false;
+                time = last ? endTime : time + step;
+
+            } else {
+
+                if (Double.isNaN(error)) {
+                    h = step * MIN_FACTOR;
+                } else {
+                    h = step
+                            * Math.max(MIN_FACTOR, SAFETY
+                                    * Math.pow(error, -1 / 3.0));
+                }
+                rejectedSteps++;
+
+                if (time + h == time) {
+                    throw new IllegalStateException(
+                            "Step size underflow at time " + time);
+                }
+            }
+        }
+
+        return endTime;
+    }
+
+    /**
+     * Compute a trial step of size <code>step</code> from <code>x</code>,
+     * leaving the result in <code>yNew</code> and the derivative there in
+     * <code>f2</code>. The derivative at <code>x</code> must already be in
+     * <code>f0</code> and the Jacobian there in <code>jacobian</code>.
+     *
+     * @param x
+     *            The current values
+     * @param step
+     *            The step size to try
+     * @return The scaled error norm of the step, <= 1 if acceptable, NaN if
+     *         the step could not be taken
+     */
+    private double attemptStep(double[] x, double step) {
+
+        int n = numberOfVariables;
+
+        // W = I - h d J
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                w[i][j] = -step * D * jacobian[i][j];
+            }
+            w[i][i] += 1;
+        }
+
+        if (!lu.decompose(w)) {
+            return Double.NaN;
+        }
+
+        lu.solve(f0, k1);
+
+        for (int i = 0; i < n; i++) {
+            y[i] = x[i] + 0.5 * step * k1[i];
+        }
+        evaluate(y, f1);
+
+        for (int i = 0; i < n; i++) {
+            k2[i] = f1[i] - k1[i];
+        }
+        lu.solve(k2, k2);
+        for (int i = 0; i < n; i++) {
+            k2[i] += k1[i];
+            yNew[i] = x[i] + step * k2[i];
+        }
+        evaluate(yNew, f2);
+
+        for (int i = 0; i < n; i++) {
+            k3[i] = f2[i] - E32 * (k2[i] - f1[i]) - 2 * (k1[i] - f0[i]);
+        }
+        lu.solve(k3, k3);
+
+        double sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            double e = step / 6 * (k1[i] - 2 * k2[i] + k3[i]);
+            double scale = absoluteTolerance + relativeTolerance
+                    * Math.max(Math.abs(x[i]), Math.abs(yNew[i]));
+            double r = e / scale;
+            sum += r * r;
+        }
+
+        return Math.sqrt(sum / n);
+    }
+
+    /**
+     * Compute the Jacobian at <code>x</code>, with forward differences if the
+     * model doesn't provide it. The derivative at <code>x</code> must already
+     * be in <code>f0</code>.
+     *
+     * @param x
+     *            The values to differentiate at, restored afterwards
+     */
+    private void computeJacobian(double[] x) {
+
+        jacobianEvaluations++;
+
+        if (xpsysFunction instanceof Jacobian) {
+            ((Jacobian) xpsysFunction).jacobian(x, jacobian);
+            return;
+        }
+
+        int n = numberOfVariables;
+        double sqrtEps = Math.sqrt(Math.ulp(1.0));
+
+        for (int j = 0; j < n; j++) {
+
+            double saved = x[j];
+            double delta = sqrtEps * Math.max(1, Math.abs(saved));
+
+            x[j] = saved + delta;
+            // The difference actually represented
+            delta = x[j] - saved;
+
+            evaluate(x, f1);
+            x[j] = saved;
+
+            for (int i = 0; i < n; i++) {
+                jacobian[i][j] = (f1[i] - f0[i]) / delta;
+            }
+        }
+    }
+
+    /**
+     * Evaluate the function and count the evaluation.
+     *
+     * @param x
+     *            The values to evaluate at
+     * @param f
+     *            Where the derivatives are stored
+     */
+    private void evaluate(double[] x, double[] f) {
+        xpsysFunction.xpsys(x, f);
+        evaluations++;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#invalidate()
+     */
+    public void invalidate() {
+        // Nothing is kept between calls
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#getNumberOfVariables()
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    /**
+     * @return The step size that will be tried next, 0 if no step has been
+     *         taken
+     */
+    public double getStepSize() {
+        return h;
+    }
+
+    /**
+     * @return The Jacobian computed for the last step. This is the
+     *         integrator's own array, not a copy.
+     */
+    public double[][] getJacobian() {
+        return jacobian;
+    }
+
+    /**
+     * @return The number of steps that met the tolerances
+     */
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    /**
+     * @return The number of steps that were thrown away and retried with a
+     *         smaller step size
+     */
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    /**
+     * @return The number of times the function has been evaluated, including
+     *         the evaluations for the Jacobians
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return The number of times the Jacobian has been computed
+     */
+    public long getJacobianEvaluations() {
+        return jacobianEvaluations;
+    }
+
+    /**
+     * Set the step, evaluation counters and the step size estimate back to
+     * zero.
+     */
+    public void reset() {
+        acceptedSteps = 0;
+        rejectedSteps = 0;
+        evaluations = 0;
+        jacobianEvaluations = 0;
+        h = 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "accepted:" + acceptedSteps + "," + " rejected:"
+                + rejectedSteps + "," + " evaluations:" + evaluations + ","
+                + " jacobians:" + jacobianEvaluations;
+    }
+
+}
@@ -0,0 +1,171 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Arrays;
+
+/**
+ * Measures the cost of the run control in {@link RK4SYS}: how much the
+ * checks for pausing and finishing add to each step of a cheap model, and how
+ * long it takes a paused simulation to take its next step after
+ * {@link RK4SYS#resume()}.
+ *
+ * <p>
+ * Usage: <code>RunControlBenchmark [seconds [resumes]]</code>
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class RunControlBenchmark {
+
+    /**
+     * A harmonic oscillator, so the steps themselves cost next to nothing
+     */
+    static class Oscillator implements XPSYS {
+
+        public void xpsys(double[] x, double[] f) {
+            f[0] = 1;
+            f[1] = x[2];
+            f[2] = -x[1];
+        }
+
+        public void updateGeometry(double[] x) {
+        }
+
+        public double[] getInitX() {
+            return new double[] { 0, 1, 0 };
+        }
+    }
+
+    /**
+     * @param args
+     *            The seconds each throughput measurement runs for and the
+     *            number of times to resume
+     * @throws InterruptedException
+     *             If interrupted while waiting for the simulation
+     */
+    public static void main(String[] args) throws InterruptedException {
+
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int resumes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        double bare = bareStepNanos(seconds);
+        double controlled = controlledStepNanos(seconds);
+
+        System.out.printf("bare stepper:  %.1f ns/step%n", bare);
+        System.out.printf("RK4SYS (warp): %.1f ns/step (%.1f ns control "
+                + "and publishing)%n", controlled, controlled - bare);
+
+        long[] latencies = resumeLatencies(resumes);
+        Arrays.sort(latencies);
+
+        System.out.printf("resume latency: median %.1f us, max %.1f us%n",
+                latencies[latencies.length / 2] * 1e-3,
+                latencies[latencies.length - 1] * 1e-3);
+    }
+
+    /**
+     * @return The wall clock time of a step with a stepper alone (ns)
+     */
+    static double bareStepNanos(double seconds) {
+
+        Oscillator oscillator = new Oscillator();
+        RK4Stepper stepper = new RK4Stepper(oscillator, 3);
+        double[] x = oscillator.getInitX();
+
+        long steps = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+
+        while (System.nanoTime() < end) {
+            stepper.stepN(x, 1e-3, 1000);
+            steps += 1000;
+        }
+
+        return (double) (System.nanoTime() - start) / steps;
+    }
+
+    /**
+     * @return The wall clock time of a step in an unthrottled simulation
+     *         (ns)
+     */
+    static double controlledStepNanos(double seconds)
+            throws InterruptedException {
+
+        RK4SYS simulation = new RK4SYS(new Oscillator(), 0, 1e-3,
+                RK4SYS.RUNINDEFINATELY, 1);
+        simulation.setWarp(true);
+
+        Thread thread = new Thread(simulation);
+        long start = System.nanoTime();
+        thread.start();
+
+        Thread.sleep((long) (seconds * 1000));
+
+        simulation.requestToFinish();
+        thread.join();
+
+        long elapsed = System.nanoTime() - start;
+
+        return elapsed / (simulation.getStates().getPublished() - 1.0);
+    }
+
+    /**
+     * An oscillator that notes when it is first evaluated after being armed
+     */
+    static class Stopwatch extends Oscillator {
+
+        volatile boolean armed;
+
+        volatile long firstCall;
+
+        public void xpsys(double[] x, double[] f) {
+            if (armed) {
+                firstCall = System.nanoTime();
+                armed = false;
+            }
+            super.xpsys(x, f);
+        }
+    }
+
+    /**
+     * The time is taken by the simulation thread itself, while this thread
+     * sleeps, so on a single processor the measurement doesn't compete with
+     * the thread being measured.
+     *
+     * @return The time from each resume until the next step started (ns)
+     */
+    static long[] resumeLatencies(int resumes) throws InterruptedException {
+
+        Stopwatch stopwatch = new Stopwatch();
+        RK4SYS simulation = new RK4SYS(stopwatch, 0, 1e-3,
+                RK4SYS.RUNINDEFINATELY, 1);
+        simulation.setWarp(true);
+
+        long[] latencies = new long[resumes];
+
+        Thread thread = new Thread(simulation);
+        thread.start();
+
+        for (int i = 0; i < resumes; i++) {
+
+            simulation.pause();
+            // Let the simulation thread notice and park
+            Thread.sleep(5);
+
+            stopwatch.armed = true;
+            long start = System.nanoTime();
+
+            simulation.resume();
+
+            Thread.sleep(5);
+
+            latencies[i] = stopwatch.firstCall - start;
+        }
+
+        simulation.requestToFinish();
+        thread.join();
+
+        return latencies;
+    }
+
+}
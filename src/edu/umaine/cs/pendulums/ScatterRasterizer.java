@@ -0,0 +1,124 @@
+package edu.umaine.cs.pendulums;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts how many (u, v) points land in each pixel of an image, so that
+ * millions of points can be plotted without keeping them. Points outside the
+ * bounds are ignored.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ScatterRasterizer implements PointSink {
+
+    private int width;
+
+    private int height;
+
+    private double uMin, uMax, vMin, vMax;
+
+    private int[] counts;
+
+    private long total;
+
+    /**
+     * @param width
+     *            The width of the image
+     * @param height
+     *            The height of the image
+     * @param uMin
+     *            The u at the left edge
+     * @param uMax
+     *            The u at the right edge
+     * @param vMin
+     *            The v at the bottom edge
+     * @param vMax
+     *            The v at the top edge
+     */
+    public ScatterRasterizer(int width, int height, double uMin, double uMax,
+            double vMin, double vMax) {
+        assert uMax > uMin && vMax > vMin : "requires: uMin < uMax, vMin < vMax";
+
+        this.width = width;
+        this.height = height;
+        this.uMin = uMin;
+        this.uMax = uMax;
+        this.vMin = vMin;
+        this.vMax = vMax;
+        this.counts = new int[width * height];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PointSink#points(double[], int)
+     */
+    public void points(double[] uv, int count) {
+
+        double sx = width / (uMax - uMin);
+        double sy = height / (vMax - vMin);
+
+        for (int i = 0; i < count; i++) {
+            double col = (uv[2 * i] - uMin) * sx;
+            double row = (vMax - uv[2 * i + 1]) * sy;
+            if (col >= 0 && col < width && row >= 0 && row < height) {
+                counts[(int) row * width + (int) col]++;
+                total++;
+            }
+        }
+    }
+
+    /**
+     * @return The number of points in each pixel, row by row from the top
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return The number of points that landed inside the image
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Write the image as a 16 bit binary PGM. The counts are scaled
+     * logarithmically so that rarely visited pixels stay visible next to
+     * heavily visited ones; empty pixels are black.
+     * 
+     * @param file
+     *            The file to write
+     * @throws IOException
+     *             If the file could not be written
+     */
+    public void writePGM(File file) throws IOException {
+
+        int max = 0;
+        for (int c : counts) {
+            max = Math.max(max, c);
+        }
+        double scale = max > 0 ? 65535 / Math.log1p(max) : 0;
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(("P5\n" + width + " " + height + "\n65535\n")
+                    .getBytes("US-ASCII"));
+
+            for (int c : counts) {
+                int value = (int) Math.round(Math.log1p(c) * scale);
+                // 16 bit PGM samples are big endian
+                out.write(value >>> 8);
+                out.write(value & 0xff);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * A conservative model written in the separable form q'' = a(q), where the
+ * velocities v = q' have a constant, diagonal mass matrix. Models in this form
+ * can be advanced by a {@link SymplecticStepper}, which keeps the energy error
+ * bounded for arbitrarily long runs.
+ * 
+ * <p>
+ * The coordinates q and v need not be the ones used by
+ * {@link XPSYS#xpsys(double[], double[])}; the model converts between the two.
+ * The time, stored in x[0] by all of the pendulum models, is advanced by the
+ * stepper and is not part of q or v.
+ * </p>
+ * 
+ * @author Mark Royer
+ * 
+ */
+public interface SeparableSystem {
+
+    /**
+     * @return The number of generalized positions, which is also the number of
+     *         velocities
+     */
+    public int getNumberOfPositions();
+
+    /**
+     * Converts the given {@link XPSYS} values into positions and velocities.
+     * 
+     * @param x
+     *            The current values of the model
+     * @param q
+     *            Where the positions are stored
+     * @param v
+     *            Where the velocities are stored
+     */
+    public void toCanonical(double[] x, double[] q, double[] v);
+
+    /**
+     * Updates the given {@link XPSYS} values from positions and velocities.
+     * Everything but the time x[0] is updated.
+     * 
+     * @param q
+     *            The positions
+     * @param v
+     *            The velocities
+     * @param x
+     *            The values of the model, updated in place
+     */
+    public void fromCanonical(double[] q, double[] v, double[] x);
+
+    /**
+     * Calculates the accelerations at the given positions.
+     * 
+     * @param q
+     *            The positions
+     * @param a
+     *            Where the accelerations are stored
+     */
+    public void acceleration(double[] q, double[] a);
+
+    /**
+     * @param q
+     *            The positions
+     * @param v
+     *            The velocities
+     * @return The total energy of the system
+     */
+    public double energy(double[] q, double[] v);
+
+}
@@ -11,11 +11,12 @@ import java.util.Arrays;
  * @author Mark Royer
  * 
  */
-public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
+public class SimpleDoublePendulum implements XPSYS, PendulumBehavior,
+        Jacobian {
 
     static final double g = 9.8;
 
-    private DoublePendulum pendulum;
+    private DoublePendulumView pendulum;
 
     private double r1 = 5;
 
@@ -25,11 +26,16 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
 
     private double m2 = 1;
 
-    private boolean updateTopRodAngle;
+    private ModelState state = new ModelState(new double[5]);
 
-    private boolean updateBottomRodAngle;
-
-    public SimpleDoublePendulum(DoublePendulum pendulum) {
+    /**
+     * Create a new behavior for the given graphical representation.
+     * 
+     * @param pendulum
+     *            The graphical representation of a double pendulum, null to
+     *            run without one
+     */
+    public SimpleDoublePendulum(DoublePendulumView pendulum) {
         this.pendulum = pendulum;
     }
 
@@ -40,8 +46,6 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public void xpsys(double[] x, double[] f) {
 
-        updateValues(x);
-
         f[0] = 1;
         f[1] = x[2];
         f[2] = -(Math.pow(x[4], 2)
@@ -86,28 +90,79 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
                         - Math.pow(Math.cos(x[1]), 2) * m2 * r2 - m1 * r2);
     }
 
-    /**
-     * Updates either of the rod angles.
+    /*
+     * (non-Javadoc)
      * 
-     * @param x current values
+     * @see edu.umaine.cs.pendulums.Jacobian#jacobian(double[], double[][])
      */
-    private synchronized void updateValues(double[] x) {
-        if (updateTopRodAngle) {
-            x[1] = pendulum.getTopRodAngle();
-            updateTopRodAngle = false;
-        }
-        if (updateBottomRodAngle) {
-            x[3] = pendulum.getBottomRodAngle();
-            updateBottomRodAngle = false;
+    public void jacobian(double[] x, double[][] j) {
+
+        // Differentiates the right hand side written in terms of the angle
+        // difference, which is equivalent to the expressions from Maxima.
+
+        double w1 = x[2];
+        double w2 = x[4];
+
+        double s1 = Math.sin(x[1]);
+        double c1 = Math.cos(x[1]);
+        double sd = Math.sin(x[1] - x[3]);
+        double cd = Math.cos(x[1] - x[3]);
+        double s2d = 2 * sd * cd;
+        double c2d = cd * cd - sd * sd;
+        double c12 = Math.cos(x[1] - 2 * x[3]);
+        double s12 = Math.sin(x[1] - 2 * x[3]);
+
+        double total = m1 + m2;
+
+        // f2 = n2 / (r1 den), f4 = n4 / (r2 den)
+        double den = 2 * m1 + m2 - m2 * c2d;
+        double dDen1 = 2 * m2 * s2d;
+
+        double a = w2 * w2 * r2;
+        double b = w1 * w1 * r1;
+        double n2 = -g * (2 * m1 + m2) * s1 - m2 * g * s12 - 2 * sd * m2
+                * (a + b * cd);
+        double n21 = -g * (2 * m1 + m2) * c1 - m2 * g * c12 - 2 * m2
+                * (cd * a + b * c2d);
+        double n23 = 2 * m2 * g * c12 + 2 * m2 * (cd * a + b * c2d);
+
+        double p = b * total + g * total * c1 + w2 * w2 * r2 * m2 * cd;
+        double n4 = 2 * sd * p;
+        double n41 = 2 * cd * p + 2 * sd
+                * (-g * total * s1 - w2 * w2 * r2 * m2 * sd);
+        double n43 = -2 * cd * p + 2 * sd * w2 * w2 * r2 * m2 * sd;
+
+        for (double[] row : j) {
+            Arrays.fill(row, 0);
         }
+
+        j[1][2] = 1;
+        j[2][1] = (n21 * den - n2 * dDen1) / (r1 * den * den);
+        j[2][2] = -4 * m2 * sd * w1 * r1 * cd / (r1 * den);
+        j[2][3] = (n23 * den + n2 * dDen1) / (r1 * den * den);
+        j[2][4] = -4 * m2 * sd * w2 * r2 / (r1 * den);
+        j[3][4] = 1;
+        j[4][1] = (n41 * den - n4 * dDen1) / (r2 * den * den);
+        j[4][2] = 4 * sd * w1 * r1 * total / (r2 * den);
+        j[4][3] = (n43 * den + n4 * dDen1) / (r2 * den * den);
+        j[4][4] = 4 * sd * w2 * r2 * m2 * cd / (r2 * den);
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#applyEdits(double[])
+     */
+    public boolean applyEdits(double[] x) {
+        return state.applyEdits(x);
     }
 
     /* (non-Javadoc)
      * @see edu.umaine.cs.pendulums.XPSYS#updateGeometry(double[])
      */
     public void updateGeometry(double[] x) {
-        pendulum.setTopRodAngle(x[1]);
-        pendulum.setBottomRodAngle(x[3]);
+        if (pendulum != null) {
+            pendulum.setTopRodAngle(x[1]);
+            pendulum.setBottomRodAngle(x[3]);
+        }
     }
 
     /* (non-Javadoc)
@@ -115,17 +170,7 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public double[] getInitX() {
 
-        double[] x = new double[5];
-
-        r1 = pendulum.getTopRodLength();
-        r2 = pendulum.getBottomRodLength();
-
-        x[1] = pendulum.getTopRodAngle();
-        x[3] = pendulum.getBottomRodAngle();
-
-        System.out.println("init: x = " + Arrays.toString(x));
-
-        return x;
+        return state.getInitial();
     }
 
     /* (non-Javadoc)
@@ -144,6 +189,7 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
         } else if (massIndex == 1) {
             this.m2 = weight;
         }
+        state.markChanged();
     }
 
     /* (non-Javadoc)
@@ -151,11 +197,15 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodAngle(int rodIndex, double angle) {
         if (rodIndex == 0) {
-            this.pendulum.setTopRodAngle(angle);
-            updateTopRodAngle = true;
+            state.set(1, angle);
+            if (pendulum != null) {
+                pendulum.setTopRodAngle(angle);
+            }
         } else if (rodIndex == 1) {
-            this.pendulum.setBottomRodAngle(angle);
-            updateBottomRodAngle = true;
+            state.set(3, angle);
+            if (pendulum != null) {
+                pendulum.setBottomRodAngle(angle);
+            }
         }
     }
 
@@ -164,17 +214,34 @@ public class SimpleDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodLength(int rodIndex, double length) {
         if (rodIndex == 0) {
-            this.pendulum.setTopRodLength(length);
+            this.r1 = length;
+            if (pendulum != null) {
+                pendulum.setTopRodLength(length);
+            }
         } else if (rodIndex == 1) {
-            this.pendulum.setBottomRodLength(length);
+            this.r2 = length;
+            if (pendulum != null) {
+                pendulum.setBottomRodLength(length);
+            }
         }
+        state.markChanged();
     }
 
     /* (non-Javadoc)
      * @see edu.umaine.cs.pendulums.PendulumBehavior#getTotalLength()
      */
-    public synchronized double getTotalLength() {
-        return this.pendulum.getTotalLength();
+    public double getTotalLength() {
+        return r1 + r2;
+    }
+
+    /**
+     * The rigid double pendulum's kinetic energy depends on the angle between
+     * the rods, so it has no separable form and is integrated by RK4.
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#getSeparableForm()
+     */
+    public SeparableSystem getSeparableForm() {
+        return null;
     }
 
 }
@@ -0,0 +1,172 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Arrays;
+
+/**
+ * An ensemble of double pendulums with rigid rods. The variables are the same
+ * as in {@link SimpleDoublePendulum}: theta1, theta1dot, theta2 and theta2dot.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class SimpleDoublePendulumEnsemble extends PendulumEnsemble {
+
+    private double[] r1;
+
+    private double[] r2;
+
+    private double[] m1;
+
+    private double[] m2;
+
+    /**
+     * Create an ensemble of double pendulums hanging straight down, each rod 5
+     * units long with a mass of 1.
+     * 
+     * @param size
+     *            The number of pendulums
+     */
+    public SimpleDoublePendulumEnsemble(int size) {
+        super(size, 4);
+
+        r1 = new double[size];
+        r2 = new double[size];
+        m1 = new double[size];
+        m2 = new double[size];
+
+        Arrays.fill(r1, 5);
+        Arrays.fill(r2, 5);
+        Arrays.fill(m1, 1);
+        Arrays.fill(m2, 1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#derivatives(double[][],
+     *      double[][], int, int)
+     */
+    @Override
+    public void derivatives(double[][] x, double[][] f, int from, int to) {
+
+        if (vectorized) {
+            from = VectorKernels.simpleDoublePendulum(x, f, r1, r2, m1, m2,
+                    from, to);
+        }
+
+        double[] theta1 = x[0], omega1 = x[1], theta2 = x[2], omega2 = x[3];
+        double[] f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3];
+
+        for (int i = from; i < to; i++) {
+
+            double w1 = omega1[i];
+            double w2 = omega2[i];
+
+            double s1 = Math.sin(theta1[i]);
+            double c1 = Math.cos(theta1[i]);
+            double s2 = Math.sin(theta2[i]);
+            double c2 = Math.cos(theta2[i]);
+
+            // sin and cos of theta1 - theta2
+            double sd = s1 * c2 - c1 * s2;
+            double cd = c1 * c2 + s1 * s2;
+
+            double ma = m1[i];
+            double mb = m2[i];
+            double la = r1[i];
+            double lb = r2[i];
+
+            double den = 2 * ma + mb - mb * (2 * cd * cd - 1);
+
+            f0[i] = w1;
+            f1[i] = (-g * (2 * ma + mb) * s1 - mb * g * (sd * c2 - cd * s2)
+                    - 2 * sd * mb * (w2 * w2 * lb + w1 * w1 * la * cd))
+                    / (la * den);
+            f2[i] = w2;
+            f3[i] = 2 * sd * (w1 * w1 * la * (ma + mb) + g * (ma + mb) * c1 + w2
+                    * w2 * lb * mb * cd)
+                    / (lb * den);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#setMember(int,
+     *      edu.umaine.cs.pendulums.InitValues)
+     */
+    @Override
+    public void setMember(int member, InitValues values) {
+        r1[member] = values.getL1();
+        r2[member] = values.getL2();
+        m1[member] = values.getM1();
+        m2[member] = values.getM2();
+
+        x[0][member] = Math.toRadians(values.getA1());
+        x[1][member] = 0;
+        x[2][member] = Math.toRadians(values.getA2());
+        x[3][member] = 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#energy(int)
+     */
+    @Override
+    public double energy(int member) {
+
+        double s1 = Math.sin(x[0][member]);
+        double c1 = Math.cos(x[0][member]);
+        double s2 = Math.sin(x[2][member]);
+        double c2 = Math.cos(x[2][member]);
+
+        // Velocities of the two masses, y pointing down
+        double v1x = r1[member] * x[1][member] * c1;
+        double v1y = -r1[member] * x[1][member] * s1;
+        double v2x = v1x + r2[member] * x[3][member] * c2;
+        double v2y = v1y - r2[member] * x[3][member] * s2;
+
+        double y1 = r1[member] * c1;
+        double y2 = y1 + r2[member] * c2;
+
+        return .5 * m1[member] * (v1x * v1x + v1y * v1y) + .5 * m2[member]
+                * (v2x * v2x + v2y * v2y) - m1[member] * g * y1 - m2[member]
+                * g * y2;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#positions(int, double[])
+     */
+    @Override
+    public void positions(int member, double[] out) {
+
+        out[0] = r1[member] * Math.sin(x[0][member]);
+        out[1] = -r1[member] * Math.cos(x[0][member]);
+        out[2] = out[0] + r2[member] * Math.sin(x[2][member]);
+        out[3] = out[1] - r2[member] * Math.cos(x[2][member]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#getInnerAngleVariable()
+     */
+    @Override
+    public int getInnerAngleVariable() {
+        return 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#getOuterAngleVariable()
+     */
+    @Override
+    public int getOuterAngleVariable() {
+        return 2;
+    }
+
+}
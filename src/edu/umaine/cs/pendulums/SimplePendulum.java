@@ -8,23 +8,25 @@ import java.util.Arrays;
  * @author Mark Royer
  * 
  */
-public class SimplePendulum implements XPSYS, PendulumBehavior {
+public class SimplePendulum implements XPSYS, PendulumBehavior,
+        SeparableSystem, Jacobian {
 
     static final double g = 9.8;
 
-    private Pendulum pendulum;
+    private PendulumView pendulum;
 
-    private boolean updateRodLength;
+    private double r = 10;
 
-    private boolean updateRodAngle;
+    private ModelState state = new ModelState(new double[7]);
 
     /**
      * Create a new behavior for the given graphical representation.
      * 
      * @param pendulum
-     *            The graphical representation of a pendulum
+     *            The graphical representation of a pendulum, null to run
+     *            without one
      */
-    public SimplePendulum(Pendulum pendulum) {
+    public SimplePendulum(PendulumView pendulum) {
         this.pendulum = pendulum;
     }
 
@@ -35,9 +37,7 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      */
     public void xpsys(double[] x, double[] f) {
 
-        double r = pendulum.getLength();
-
-        updateValues(x);
+        double r = this.r;
 
         f[0] = 1;
         f[1] = x[2];
@@ -50,22 +50,47 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
         f[6] = -g / r * Math.sin(x[5]);
     }
 
-    /**
-     * Updates either the rod angle or rod length.
+    /*
+     * (non-Javadoc)
      * 
-     * @param x
-     *            Current values for the system
-     */
-    private synchronized void updateValues(double[] x) {
-        if (updateRodLength) {
-            x[1] = pendulum.getHX();
-            x[3] = pendulum.getHY();
-            updateRodLength = false;
+     * @see edu.umaine.cs.pendulums.Jacobian#jacobian(double[], double[][])
+     */
+    public void jacobian(double[] x, double[][] j) {
+
+        double s = Math.sin(x[5]);
+        double c = Math.cos(x[5]);
+        double w = x[6];
+
+        for (double[] row : j) {
+            Arrays.fill(row, 0);
         }
-        if (updateRodAngle) {
-            x[5] = pendulum.getAngle();
-            updateRodAngle = false;
+
+        j[1][2] = 1;
+        j[2][5] = -g * (c * c - s * s) - w * w * r * c;
+        j[2][6] = -2 * w * r * s;
+        j[3][4] = 1;
+        j[4][5] = -2 * g * s * c - w * w * r * s;
+        j[4][6] = 2 * w * r * c;
+        j[5][6] = 1;
+        j[6][5] = -g / r * c;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#applyEdits(double[])
+     */
+    public boolean applyEdits(double[] x) {
+
+        if (!state.applyEdits(x)) {
+            return false;
         }
+
+        // The head position follows from the angle and the rod length
+        x[1] = r * Math.sin(x[5]);
+        x[3] = -r * Math.cos(x[5]);
+
+        return true;
     }
 
     /*
@@ -74,7 +99,9 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      * @see edu.umaine.cs.pendulums.XPSYS#updateGeometry(double[])
      */
     public void updateGeometry(double[] x) {
-        pendulum.setPendulumHeadPosition(x[5]);
+        if (pendulum != null) {
+            pendulum.setPendulumHeadPosition(x[5]);
+        }
     }
 
     /**
@@ -84,11 +111,10 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      *            Current rod angle (radians)
      */
     public void analyticSolution(double theta) {
-
-        double r = pendulum.getLength();
-
-        pendulum.setPendulumHeadPosition(r * Math.sin(theta), r
-                * Math.cos(theta), 0);
+        if (pendulum != null) {
+            pendulum.setPendulumHeadPosition(r * Math.sin(theta), r
+                    * Math.cos(theta), 0);
+        }
     }
 
     /*
@@ -98,13 +124,10 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      */
     public double[] getInitX() {
 
-        double[] x = new double[7];
-
-        x[1] = pendulum.getHX();
-        x[3] = pendulum.getHY();
-        x[5] = pendulum.getAngle();
+        double[] x = state.getInitial();
 
-        System.out.println("init: x = " + Arrays.toString(x));
+        x[1] = r * Math.sin(x[5]);
+        x[3] = -r * Math.cos(x[5]);
 
         return x;
     }
@@ -116,7 +139,9 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      *            radians
      */
     public void setPendulumAngle(double angle) {
-        pendulum.setPendulumHeadPosition(angle);
+        if (pendulum != null) {
+            pendulum.setPendulumHeadPosition(angle);
+        }
     }
 
     /**
@@ -126,7 +151,9 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      *            The length of the rod
      */
     public void setPendulumLength(double length) {
-        pendulum.setRodLength(length);
+        if (pendulum != null) {
+            pendulum.setRodLength(length);
+        }
     }
 
     /* (non-Javadoc)
@@ -148,8 +175,10 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodAngle(int rodIndex, double angle) {
         if (rodIndex == 0) {
-            this.pendulum.setPendulumHeadPosition(angle);
-            updateRodAngle = true;
+            state.set(5, angle);
+            if (pendulum != null) {
+                pendulum.setPendulumHeadPosition(angle);
+            }
         }
     }
 
@@ -158,16 +187,76 @@ public class SimplePendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodLength(int rodIndex, double length) {
         if (rodIndex == 0) {
-            this.pendulum.setRodLength(length);
-            updateRodLength = true;
+            this.r = length;
+            state.markChanged();
+            if (pendulum != null) {
+                pendulum.setRodLength(length);
+            }
         }
     }
 
     /* (non-Javadoc)
      * @see edu.umaine.cs.pendulums.PendulumBehavior#getTotalLength()
      */
-    public synchronized double getTotalLength() {
-        return this.pendulum.getLength();
+    public double getTotalLength() {
+        return r;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#getSeparableForm()
+     */
+    public SeparableSystem getSeparableForm() {
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#getNumberOfPositions()
+     */
+    public int getNumberOfPositions() {
+        return 1;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#toCanonical(double[], double[], double[])
+     */
+    public void toCanonical(double[] x, double[] q, double[] v) {
+        q[0] = x[5]; // theta
+        v[0] = x[6]; // thetadot
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#fromCanonical(double[], double[], double[])
+     */
+    public void fromCanonical(double[] q, double[] v, double[] x) {
+
+        double sin = Math.sin(q[0]);
+        double cos = Math.cos(q[0]);
+
+        // The head position is relative to the base, so only move it by the
+        // change in angle.
+        x[1] += r * (sin - Math.sin(x[5]));
+        x[2] = r * cos * v[0];
+        x[3] -= r * (cos - Math.cos(x[5]));
+        x[4] = r * sin * v[0];
+        x[5] = q[0];
+        x[6] = v[0];
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#acceleration(double[], double[])
+     */
+    public void acceleration(double[] q, double[] a) {
+        a[0] = -g / r * Math.sin(q[0]);
+    }
+
+    /**
+     * The energy per unit mass, since a simple pendulum's motion does not
+     * depend on its mass.
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#energy(double[], double[])
+     */
+    public double energy(double[] q, double[] v) {
+        return .5 * r * r * v[0] * v[0] - g * r * Math.cos(q[0]);
     }
 
 }
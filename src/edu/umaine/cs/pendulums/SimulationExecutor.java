@@ -0,0 +1,223 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Owns the threads simulations are run in. Worker threads are kept for a
+ * minute after a simulation ends and reused for the next one, and every
+ * simulation that has been started but hasn't returned yet is counted as
+ * live, so a simulation that ignores requests to finish shows up as a leak
+ * instead of quietly running alongside its replacement.
+ *
+ * <p>
+ * A simulation is cancelled by requesting it to finish and interrupting its
+ * thread, and {@link #cancelAll(long)} waits up to a deadline for every live
+ * simulation to return before a new one is started.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class SimulationExecutor {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(SimulationExecutor.class.getName());
+
+    private ExecutorService executor;
+
+    private Set<Run> live = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Runs the simulations in daemon threads, so a simulation never keeps the
+     * application from exiting.
+     */
+    public SimulationExecutor() {
+
+        final AtomicInteger threads = new AtomicInteger();
+
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "simulation-"
+                        + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run a simulation in one of the worker threads.
+     *
+     * @param simulation
+     *            The simulation, which must not have been run before
+     * @return The handle the simulation can be cancelled and waited for with
+     */
+    public Run start(RK4SYS simulation) {
+
+        Run run = new Run(simulation);
+        live.add(run);
+        run.future = executor.submit(run);
+
+        return run;
+    }
+
+    /**
+     * Cancel every live simulation and wait for them to return.
+     *
+     * @param timeoutMillis
+     *            The longest to wait altogether (ms)
+     * @return true iff no simulation is still running
+     */
+    public boolean cancelAll(long timeoutMillis) {
+
+        for (Run run : live) {
+            run.cancel();
+        }
+
+        long deadline = System.nanoTime() + timeoutMillis * 1000000;
+        boolean finished = true;
+
+        for (Run run : live) {
+            try {
+                finished &= run.awaitFinish(Math.max(0, deadline
+                        - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finished = false;
+                break;
+            }
+        }
+
+        if (!finished) {
+            LOGGER.warning(getLiveRuns() + " simulation(s) still running "
+                    + timeoutMillis + " ms after being cancelled");
+        }
+
+        return finished;
+    }
+
+    /**
+     * Cancel every live simulation, wait for them to return and let the
+     * worker threads go. Nothing can be started afterwards.
+     *
+     * @param timeoutMillis
+     *            The longest to wait (ms)
+     * @return true iff no simulation is still running
+     */
+    public boolean shutdown(long timeoutMillis) {
+        boolean finished = cancelAll(timeoutMillis);
+        executor.shutdown();
+        return finished;
+    }
+
+    /**
+     * @return The number of simulations that have been started and haven't
+     *         returned yet
+     */
+    public int getLiveRuns() {
+        return live.size();
+    }
+
+    /**
+     * A simulation started by a {@link SimulationExecutor}.
+     */
+    public class Run implements Runnable {
+
+        private RK4SYS simulation;
+
+        /**
+         * Set by whichever comes first, the worker starting the simulation or
+         * a cancellation before it started
+         */
+        private AtomicBoolean claimed = new AtomicBoolean();
+
+        private CountDownLatch finished = new CountDownLatch(1);
+
+        private volatile Future<?> future;
+
+        private Run(RK4SYS simulation) {
+            this.simulation = simulation;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                simulation.run();
+            } finally {
+                live.remove(this);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Request the simulation to finish and interrupt its thread. Returns
+         * without waiting.
+         */
+        public void cancel() {
+
+            simulation.requestToFinish();
+
+            if (claimed.compareAndSet(false, true)) {
+                // Never started, so it won't remove itself
+                live.remove(this);
+                finished.countDown();
+            }
+
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+        }
+
+        /**
+         * Wait for the simulation to return.
+         *
+         * @param timeout
+         *            The longest to wait
+         * @param unit
+         *            The unit of the timeout
+         * @return true iff the simulation has returned
+         * @throws InterruptedException
+         *             If interrupted while waiting
+         */
+        public boolean awaitFinish(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return finished.await(timeout, unit);
+        }
+
+        /**
+         * @return true iff the simulation has returned
+         */
+        public boolean isFinished() {
+            return finished.getCount() == 0;
+        }
+
+        /**
+         * @return The simulation being run
+         */
+        public RK4SYS getSimulation() {
+            return simulation;
+        }
+    }
+
+}
@@ -8,11 +8,12 @@ import java.util.Arrays;
  * @author Mark Royer
  * 
  */
-public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
+public class SpringDoublePendulum implements XPSYS, PendulumBehavior, Jacobian,
+        SeparableSystem, MultirateSystem {
 
     static final double g = 9.8;
 
-    DoublePendulum pendulum;
+    private DoublePendulumView pendulum;
 
     private double k1 = 100;
 
@@ -26,22 +27,17 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
 
     private double m2 = 1;
 
-    private boolean updateTopRodAngle;
-
-    private boolean updateBottomRodAngle;
-
-    private boolean updateTopRodLength;
-
-    private boolean updateBottomRodLength;
+    private ModelState state = new ModelState(new double[] { 0, r01, 0, r02,
+            0, 0, 0, 0, 0 });
 
     /**
      * Create a new SpringDoublePendulum behavior for a double pendulum object.
      * 
      * @param pendulum
      *            The double pendulum that will behave according to this
-     *            object's calculations
+     *            object's calculations, null to run without one
      */
-    public SpringDoublePendulum(DoublePendulum pendulum) {
+    public SpringDoublePendulum(DoublePendulumView pendulum) {
         this.pendulum = pendulum;
     }
 
@@ -52,7 +48,6 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public void xpsys(double[] x, double[] f) {
 
-        updateValues(x);
         // These were generated using Maxima.toJava
         f[0] = 1;
         f[1] = x[5]; // r1dot
@@ -83,32 +78,107 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
 
     }
 
-    /**
-     * Update the values in the array if they have been altered by an outside
-     * entity.
+    /*
+     * (non-Javadoc)
      * 
-     * @param x
-     *            Values array
+     * @see edu.umaine.cs.pendulums.Jacobian#jacobian(double[], double[][])
      */
-    private synchronized void updateValues(double[] x) {
-        if (updateTopRodLength) {
-            r01 = pendulum.getTopRodLength();
-            x[1] = r01;
-            updateTopRodLength = false;
-        }
-        if (updateBottomRodLength) {
-            r02 = pendulum.getBottomRodLength();
-            x[3] = r02;
-            updateBottomRodLength = false;
-        }
-        if (updateTopRodAngle) {
-            x[2] = pendulum.getTopRodAngle();
-            updateTopRodAngle = false;
-        }
-        if (updateBottomRodAngle) {
-            x[4] = pendulum.getBottomRodAngle();
-            updateBottomRodAngle = false;
+    public void jacobian(double[] x, double[][] j) {
+
+        double r1 = x[1], r2 = x[3];
+        double w1 = x[6], w2 = x[8];
+
+        double s1 = Math.sin(x[2]);
+        double c1 = Math.cos(x[2]);
+
+        // cos(theta1 - theta2) and sin(theta2 - theta1)
+        double c = Math.cos(x[2] - x[4]);
+        double s = Math.sin(x[4] - x[2]);
+
+        double stretch1 = k1 * (r1 - r01);
+        double stretch2 = k2 * (r2 - r02);
+
+        double n6 = s * stretch2 - s1 * g * m1 - 2 * x[5] * w1 * m1;
+        double n8 = s * stretch1 + 2 * x[7] * w2 * m1;
+
+        for (double[] row : j) {
+            Arrays.fill(row, 0);
         }
+
+        j[1][5] = 1;
+        j[2][6] = 1;
+        j[3][7] = 1;
+        j[4][8] = 1;
+
+        j[5][1] = w1 * w1 - k1 / m1;
+        j[5][2] = (s * stretch2 - s1 * g * m1) / m1;
+        j[5][3] = c * k2 / m1;
+        j[5][4] = -s * stretch2 / m1;
+        j[5][6] = 2 * w1 * r1;
+
+        j[6][1] = -n6 / (m1 * r1 * r1);
+        j[6][2] = (-c * stretch2 - c1 * g * m1) / (m1 * r1);
+        j[6][3] = s * k2 / (m1 * r1);
+        j[6][4] = c * stretch2 / (m1 * r1);
+        j[6][5] = -2 * w1 / r1;
+        j[6][6] = -2 * x[5] / r1;
+
+        j[7][1] = c * k1 / m1;
+        j[7][2] = s * stretch1 / m1;
+        j[7][3] = w2 * w2 - (m1 + m2) * k2 / (m1 * m2);
+        j[7][4] = -s * stretch1 / m1;
+        j[7][8] = 2 * w2 * r2;
+
+        j[8][1] = -s * k1 / (m1 * r2);
+        j[8][2] = c * stretch1 / (m1 * r2);
+        j[8][3] = n8 / (m1 * r2 * r2);
+        j[8][4] = -c * stretch1 / (m1 * r2);
+        j[8][7] = -2 * w2 / r2;
+        j[8][8] = -2 * x[7] / r2;
+    }
+
+    /**
+     * The lengths of the springs and their rates of change are fast, the
+     * angles and angular velocities are slow.
+     * 
+     * @see edu.umaine.cs.pendulums.MultirateSystem#isFast(int)
+     */
+    public boolean isFast(int variable) {
+        return variable == 1 || variable == 3 || variable == 5
+                || variable == 7;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.MultirateSystem#fastXpsys(double[],
+     *      double[])
+     */
+    public void fastXpsys(double[] x, double[] f) {
+
+        // The same as r1dotdot and r2dotdot above, with only two cosines
+        double c = Math.cos(x[2] - x[4]);
+        double stretch1 = k1 * (x[1] - r01);
+        double stretch2 = k2 * (x[3] - r02);
+
+        f[1] = x[5]; // r1dot
+        f[3] = x[7]; // r2dot
+        f[5] = (c * stretch2 + x[6] * x[6] * m1 * x[1] - stretch1 + Math
+                .cos(x[2])
+                * g * m1)
+                / m1; // r1dotdot
+        f[7] = (-(m1 + m2) * stretch2 + x[8] * x[8] * m1 * m2 * x[3] + c * m2
+                * stretch1)
+                / (m1 * m2); // r2dotdot
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#applyEdits(double[])
+     */
+    public boolean applyEdits(double[] x) {
+        return state.applyEdits(x);
     }
 
     /*
@@ -117,10 +187,12 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
      * @see edu.umaine.cs.pendulums.XPSYS#updateGeometry(double[])
      */
     public void updateGeometry(double[] x) {
-        pendulum.setTopRodLength(x[1]);
-        pendulum.setTopRodAngle(x[2]);
-        pendulum.setBottomRodLength(x[3]);
-        pendulum.setBottomRodAngle(x[4]);
+        if (pendulum != null) {
+            pendulum.setTopRodLength(x[1]);
+            pendulum.setTopRodAngle(x[2]);
+            pendulum.setBottomRodLength(x[3]);
+            pendulum.setBottomRodAngle(x[4]);
+        }
     }
 
     /*
@@ -130,19 +202,7 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public double[] getInitX() {
 
-        double[] x = new double[9];
-
-        r01 = pendulum.getTopRodLength();
-        r02 = pendulum.getBottomRodLength();
-
-        x[1] = r01;
-        x[2] = pendulum.getTopRodAngle();
-        x[3] = r02;
-        x[4] = pendulum.getBottomRodAngle();
-
-        System.out.println("init: x = " + Arrays.toString(x));
-
-        return x;
+        return state.getInitial();
     }
 
     /*
@@ -156,6 +216,7 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
         } else if (index == 1) {
             this.k2 = value;
         }
+        state.markChanged();
     }
 
     /*
@@ -169,6 +230,7 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
         } else if (massIndex == 1) {
             this.m2 = weight;
         }
+        state.markChanged();
     }
 
     /*
@@ -178,11 +240,15 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodAngle(int rodIndex, double angle) {
         if (rodIndex == 0) {
-            this.pendulum.setTopRodAngle(angle);
-            updateTopRodAngle = true;
+            state.set(2, angle);
+            if (pendulum != null) {
+                pendulum.setTopRodAngle(angle);
+            }
         } else if (rodIndex == 1) {
-            this.pendulum.setBottomRodAngle(angle);
-            updateBottomRodAngle = true;
+            state.set(4, angle);
+            if (pendulum != null) {
+                pendulum.setBottomRodAngle(angle);
+            }
         }
     }
 
@@ -193,13 +259,17 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodLength(int rodIndex, double length) {
         if (rodIndex == 0) {
-            this.pendulum.setTopRodLength(length);
             this.r01 = length;
-            updateTopRodLength = true;
+            state.set(1, length);
+            if (pendulum != null) {
+                pendulum.setTopRodLength(length);
+            }
         } else if (rodIndex == 1) {
-            this.pendulum.setBottomRodLength(length);
             this.r02 = length;
-            updateBottomRodLength = true;
+            state.set(3, length);
+            if (pendulum != null) {
+                pendulum.setBottomRodLength(length);
+            }
         }
     }
 
@@ -208,8 +278,120 @@ public class SpringDoublePendulum implements XPSYS, PendulumBehavior {
      * 
      * @see edu.umaine.cs.pendulums.PendulumBehavior#getTotalLength()
      */
-    public synchronized double getTotalLength() {
-        return this.pendulum.getTotalLength();
+    public double getTotalLength() {
+        return r01 + r02;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#getSeparableForm()
+     */
+    public SeparableSystem getSeparableForm() {
+        return this;
+    }
+
+    /**
+     * The separable form uses the Cartesian positions of the joint and the
+     * outer mass relative to the base, with y pointing down.
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#getNumberOfPositions()
+     */
+    public int getNumberOfPositions() {
+        return 4;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#toCanonical(double[],
+     *      double[], double[])
+     */
+    public void toCanonical(double[] x, double[] q, double[] v) {
+
+        double sin1 = Math.sin(x[2]);
+        double cos1 = Math.cos(x[2]);
+        double sin2 = Math.sin(x[4]);
+        double cos2 = Math.cos(x[4]);
+
+        q[0] = x[1] * sin1;
+        q[1] = x[1] * cos1;
+        q[2] = q[0] + x[3] * sin2;
+        q[3] = q[1] + x[3] * cos2;
+
+        v[0] = x[5] * sin1 + x[1] * cos1 * x[6];
+        v[1] = x[5] * cos1 - x[1] * sin1 * x[6];
+        v[2] = v[0] + x[7] * sin2 + x[3] * cos2 * x[8];
+        v[3] = v[1] + x[7] * cos2 - x[3] * sin2 * x[8];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#fromCanonical(double[],
+     *      double[], double[])
+     */
+    public void fromCanonical(double[] q, double[] v, double[] x) {
+
+        double dx = q[2] - q[0];
+        double dy = q[3] - q[1];
+        double dvx = v[2] - v[0];
+        double dvy = v[3] - v[1];
+
+        double r1 = Math.sqrt(q[0] * q[0] + q[1] * q[1]);
+        double r2 = Math.sqrt(dx * dx + dy * dy);
+
+        // Keep the number of times each rod has gone over the top
+        x[1] = r1;
+        x[2] += Math.IEEEremainder(Math.atan2(q[0], q[1]) - x[2], 2 * Math.PI);
+        x[3] = r2;
+        x[4] += Math.IEEEremainder(Math.atan2(dx, dy) - x[4], 2 * Math.PI);
+        x[5] = (q[0] * v[0] + q[1] * v[1]) / r1;
+        x[6] = (q[1] * v[0] - q[0] * v[1]) / (r1 * r1);
+        x[7] = (dx * dvx + dy * dvy) / r2;
+        x[8] = (dy * dvx - dx * dvy) / (r2 * r2);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#acceleration(double[],
+     *      double[])
+     */
+    public void acceleration(double[] q, double[] a) {
+
+        double dx = q[2] - q[0];
+        double dy = q[3] - q[1];
+
+        double r1 = Math.sqrt(q[0] * q[0] + q[1] * q[1]);
+        double r2 = Math.sqrt(dx * dx + dy * dy);
+
+        // Spring tension divided by length, along each rod
+        double t1 = k1 * (r1 - r01) / r1;
+        double t2 = k2 * (r2 - r02) / r2;
+
+        a[0] = (-t1 * q[0] + t2 * dx) / m1;
+        a[1] = g + (-t1 * q[1] + t2 * dy) / m1;
+        a[2] = -t2 * dx / m2;
+        a[3] = g - t2 * dy / m2;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#energy(double[], double[])
+     */
+    public double energy(double[] q, double[] v) {
+
+        double dx = q[2] - q[0];
+        double dy = q[3] - q[1];
+
+        double s1 = Math.sqrt(q[0] * q[0] + q[1] * q[1]) - r01;
+        double s2 = Math.sqrt(dx * dx + dy * dy) - r02;
+
+        return .5 * m1 * (v[0] * v[0] + v[1] * v[1]) + .5 * m2
+                * (v[2] * v[2] + v[3] * v[3]) - m1 * g * q[1] - m2 * g * q[3]
+                + .5 * k1 * s1 * s1 + .5 * k2 * s2 * s2;
     }
 
 }
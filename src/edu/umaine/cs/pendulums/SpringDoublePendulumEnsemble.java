@@ -0,0 +1,203 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.Arrays;
+
+/**
+ * An ensemble of double pendulums whose rods behave as springs. The variables
+ * are the same as in {@link SpringDoublePendulum}: r1, theta1, r2, theta2 and
+ * their derivatives in the same order.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class SpringDoublePendulumEnsemble extends PendulumEnsemble {
+
+    private double[] k1;
+
+    private double[] k2;
+
+    private double[] r01;
+
+    private double[] r02;
+
+    private double[] m1;
+
+    private double[] m2;
+
+    /**
+     * Create an ensemble of double spring pendulums hanging straight down at
+     * rest, each rod 5 units long with a mass of 1 and a spring constant of
+     * 100.
+     * 
+     * @param size
+     *            The number of pendulums
+     */
+    public SpringDoublePendulumEnsemble(int size) {
+        super(size, 8);
+
+        k1 = new double[size];
+        k2 = new double[size];
+        r01 = new double[size];
+        r02 = new double[size];
+        m1 = new double[size];
+        m2 = new double[size];
+
+        Arrays.fill(k1, 100);
+        Arrays.fill(k2, 100);
+        Arrays.fill(r01, 5);
+        Arrays.fill(r02, 5);
+        Arrays.fill(m1, 1);
+        Arrays.fill(m2, 1);
+        Arrays.fill(x[0], 5);
+        Arrays.fill(x[2], 5);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#derivatives(double[][],
+     *      double[][], int, int)
+     */
+    @Override
+    public void derivatives(double[][] x, double[][] f, int from, int to) {
+
+        if (vectorized) {
+            from = VectorKernels.springDoublePendulum(x, f, k1, k2, r01, r02,
+                    m1, m2, from, to);
+        }
+
+        double[] r1 = x[0], theta1 = x[1], r2 = x[2], theta2 = x[3];
+        double[] r1dot = x[4], theta1dot = x[5], r2dot = x[6], theta2dot = x[7];
+
+        for (int i = from; i < to; i++) {
+
+            double s1 = Math.sin(theta1[i]);
+            double c1 = Math.cos(theta1[i]);
+            double s2 = Math.sin(theta2[i]);
+            double c2 = Math.cos(theta2[i]);
+
+            // cos(theta1 - theta2) and sin(theta2 - theta1)
+            double cd = c1 * c2 + s1 * s2;
+            double sd = c1 * s2 - s1 * c2;
+
+            double ma = m1[i];
+            double mb = m2[i];
+
+            double stretch1 = k1[i] * (r1[i] - r01[i]);
+            double stretch2 = k2[i] * (r2[i] - r02[i]);
+
+            double w1 = theta1dot[i];
+            double w2 = theta2dot[i];
+
+            f[0][i] = r1dot[i];
+            f[1][i] = w1;
+            f[2][i] = r2dot[i];
+            f[3][i] = w2;
+            f[4][i] = (cd * stretch2 + w1 * w1 * ma * r1[i] - stretch1 + c1
+                    * g * ma)
+                    / ma;
+            f[5][i] = (sd * stretch2 - s1 * g * ma - 2 * r1dot[i] * w1 * ma)
+                    / (ma * r1[i]);
+            f[6][i] = (-(mb + ma) * stretch2 + w2 * w2 * ma * mb * r2[i] + cd
+                    * mb * stretch1)
+                    / (ma * mb);
+            f[7][i] = -(sd * stretch1 + 2 * r2dot[i] * w2 * ma)
+                    / (ma * r2[i]);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#setMember(int,
+     *      edu.umaine.cs.pendulums.InitValues)
+     */
+    @Override
+    public void setMember(int member, InitValues values) {
+        k1[member] = values.getK1();
+        k2[member] = values.getK2();
+        r01[member] = values.getL1();
+        r02[member] = values.getL2();
+        m1[member] = values.getM1();
+        m2[member] = values.getM2();
+
+        x[0][member] = values.getL1();
+        x[1][member] = Math.toRadians(values.getA1());
+        x[2][member] = values.getL2();
+        x[3][member] = Math.toRadians(values.getA2());
+        for (int v = 4; v < 8; v++) {
+            x[v][member] = 0;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#energy(int)
+     */
+    @Override
+    public double energy(int member) {
+
+        double r1 = x[0][member], r2 = x[2][member];
+        double w1 = x[5][member], w2 = x[7][member];
+
+        double s1 = Math.sin(x[1][member]);
+        double c1 = Math.cos(x[1][member]);
+        double s2 = Math.sin(x[3][member]);
+        double c2 = Math.cos(x[3][member]);
+
+        // Velocities of the two masses, y pointing down
+        double v1x = x[4][member] * s1 + r1 * w1 * c1;
+        double v1y = x[4][member] * c1 - r1 * w1 * s1;
+        double v2x = v1x + x[6][member] * s2 + r2 * w2 * c2;
+        double v2y = v1y + x[6][member] * c2 - r2 * w2 * s2;
+
+        double y1 = r1 * c1;
+        double y2 = y1 + r2 * c2;
+
+        double stretch1 = r1 - r01[member];
+        double stretch2 = r2 - r02[member];
+
+        return .5 * m1[member] * (v1x * v1x + v1y * v1y) + .5 * m2[member]
+                * (v2x * v2x + v2y * v2y) - m1[member] * g * y1 - m2[member]
+                * g * y2 + .5 * k1[member] * stretch1 * stretch1 + .5
+                * k2[member] * stretch2 * stretch2;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#positions(int, double[])
+     */
+    @Override
+    public void positions(int member, double[] out) {
+
+        double r1 = x[0][member], r2 = x[2][member];
+
+        out[0] = r1 * Math.sin(x[1][member]);
+        out[1] = -r1 * Math.cos(x[1][member]);
+        out[2] = out[0] + r2 * Math.sin(x[3][member]);
+        out[3] = out[1] - r2 * Math.cos(x[3][member]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#getInnerAngleVariable()
+     */
+    @Override
+    public int getInnerAngleVariable() {
+        return 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.PendulumEnsemble#getOuterAngleVariable()
+     */
+    @Override
+    public int getOuterAngleVariable() {
+        return 3;
+    }
+
+}
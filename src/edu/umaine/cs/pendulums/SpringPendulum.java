@@ -12,7 +12,8 @@ import java.util.Arrays;
  * @author Mark Royer
  * 
  */
-public class SpringPendulum implements XPSYS, PendulumBehavior {
+public class SpringPendulum implements XPSYS, PendulumBehavior, Jacobian,
+        SeparableSystem {
     static final double g = 9.8;
 
     private double m = 3;
@@ -21,13 +22,19 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
 
     private double r0 = 6;
 
-    private boolean updateRodLength;
+    private ModelState state = new ModelState(new double[] { 0, 0, r0, 0,
+            0 });
 
-    private boolean updateRodAngle;
+    private PendulumView pendulum;
 
-    private Pendulum pendulum;
-
-    public SpringPendulum(Pendulum pendulum) {
+    /**
+     * Create a new behavior for the given graphical representation.
+     * 
+     * @param pendulum
+     *            The graphical representation of a pendulum, null to run
+     *            without one
+     */
+    public SpringPendulum(PendulumView pendulum) {
         this.pendulum = pendulum;
     }
 
@@ -38,39 +45,55 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
      */
     public void xpsys(double[] x, double[] f) {
 
-        updateValues(x);
-
         f[0] = 1; // dt
-        f[1] = x[3]; // rdot
-        f[2] = x[4]; // thetadot
-        f[3] = -((x[4] * x[3]) / x[2]) - (g / x[2]) * Math.sin(x[1]); // rdotdot
+        f[1] = x[3]; // thetadot
+        f[2] = x[4]; // rdot
+        f[3] = -((2 * x[4] * x[3]) / x[2]) - (g / x[2]) * Math.sin(x[1]); // thetadotdot
         f[4] = x[2] * x[3] * x[3] + g * Math.cos(x[1]) - (2 * k / m)
-                * (x[2] - r0); // thetadotdot
+                * (x[2] - r0); // rdotdot
     }
 
-    /**
-     * Updates either the rod length or the rod angle in the given array.
+    /*
+     * (non-Javadoc)
      * 
-     * @param x
-     *            Current values
+     * @see edu.umaine.cs.pendulums.Jacobian#jacobian(double[], double[][])
      */
-    private synchronized void updateValues(double[] x) {
-        if (updateRodLength) {
-            x[2] = pendulum.getLength();
-            updateRodLength = false;
-        }
-        if (updateRodAngle) {
-            x[1] = pendulum.getAngle();
-            updateRodAngle = false;
+    public void jacobian(double[] x, double[][] j) {
+
+        double s = Math.sin(x[1]);
+        double c = Math.cos(x[1]);
+        double r = x[2];
+
+        for (double[] row : j) {
+            Arrays.fill(row, 0);
         }
+
+        j[1][3] = 1;
+        j[2][4] = 1;
+        j[3][1] = -g / r * c;
+        j[3][2] = (2 * x[4] * x[3] + g * s) / (r * r);
+        j[3][3] = -2 * x[4] / r;
+        j[3][4] = -2 * x[3] / r;
+        j[4][1] = -g * s;
+        j[4][2] = x[3] * x[3] - 2 * k / m;
+        j[4][3] = 2 * r * x[3];
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#applyEdits(double[])
+     */
+    public boolean applyEdits(double[] x) {
+        return state.applyEdits(x);
     }
 
     /* (non-Javadoc)
      * @see edu.umaine.cs.pendulums.XPSYS#updateGeometry(double[])
      */
     public void updateGeometry(double[] x) {
-        pendulum.setRodLength(x[2]);
-        pendulum.setPendulumHeadPosition(x[1]);
+        if (pendulum != null) {
+            pendulum.setRodLength(x[2]);
+            pendulum.setPendulumHeadPosition(x[1]);
+        }
     }
 
     /* (non-Javadoc)
@@ -78,16 +101,7 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
      */
     public double[] getInitX() {
 
-        double[] x = new double[5];
-
-        r0 = pendulum.getLength();
-
-        x[1] = pendulum.getAngle();
-        x[2] = r0;
-
-        System.out.println("init: x = " + Arrays.toString(x));
-
-        return x;
+        return state.getInitial();
     }
 
     /**
@@ -96,7 +110,9 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
      * @param angle rod angle (radians)
      */
     public void setPendulumAngle(double angle) {
-        pendulum.setPendulumHeadPosition(angle);
+        if (pendulum != null) {
+            pendulum.setPendulumHeadPosition(angle);
+        }
     }
 
     /**
@@ -105,7 +121,9 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
      * @param length The rod length
      */
     public void setPendulumLength(double length) {
-        pendulum.setRodLength(length);
+        if (pendulum != null) {
+            pendulum.setRodLength(length);
+        }
     }
 
     /* (non-Javadoc)
@@ -115,6 +133,7 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
         if (index == 0) {
             this.k = value;
         }
+        state.markChanged();
     }
 
     /* (non-Javadoc)
@@ -124,7 +143,7 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
         if (massIndex == 0) {
             this.m = weight;
         }
-
+        state.markChanged();
     }
 
     /* (non-Javadoc)
@@ -132,8 +151,10 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodAngle(int rodIndex, double angle) {
         if (rodIndex == 0) {
-            this.pendulum.setPendulumHeadPosition(angle);
-            updateRodAngle = true;
+            state.set(1, angle);
+            if (pendulum != null) {
+                pendulum.setPendulumHeadPosition(angle);
+            }
         }
     }
 
@@ -142,16 +163,87 @@ public class SpringPendulum implements XPSYS, PendulumBehavior {
      */
     public synchronized void setRodLength(int rodIndex, double length) {
         if (rodIndex == 0) {
-            this.pendulum.setRodLength(length);
-            updateRodLength = true;
+            this.r0 = length;
+            state.set(2, length);
+            if (pendulum != null) {
+                pendulum.setRodLength(length);
+            }
         }
     }
 
     /* (non-Javadoc)
      * @see edu.umaine.cs.pendulums.PendulumBehavior#getTotalLength()
      */
-    public synchronized double getTotalLength() {
-        return this.pendulum.getLength();
+    public double getTotalLength() {
+        return r0;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.PendulumBehavior#getSeparableForm()
+     */
+    public SeparableSystem getSeparableForm() {
+        return this;
+    }
+
+    /**
+     * The separable form uses the Cartesian position of the mass relative to
+     * the base, with y pointing down.
+     * 
+     * @see edu.umaine.cs.pendulums.SeparableSystem#getNumberOfPositions()
+     */
+    public int getNumberOfPositions() {
+        return 2;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#toCanonical(double[], double[], double[])
+     */
+    public void toCanonical(double[] x, double[] q, double[] v) {
+
+        double sin = Math.sin(x[1]);
+        double cos = Math.cos(x[1]);
+
+        q[0] = x[2] * sin;
+        q[1] = x[2] * cos;
+        v[0] = x[4] * sin + x[2] * cos * x[3];
+        v[1] = x[4] * cos - x[2] * sin * x[3];
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#fromCanonical(double[], double[], double[])
+     */
+    public void fromCanonical(double[] q, double[] v, double[] x) {
+
+        double r = Math.sqrt(q[0] * q[0] + q[1] * q[1]);
+
+        // Keep the number of times the pendulum has gone over the top
+        x[1] += Math.IEEEremainder(Math.atan2(q[0], q[1]) - x[1], 2 * Math.PI);
+        x[2] = r;
+        x[3] = (q[1] * v[0] - q[0] * v[1]) / (r * r);
+        x[4] = (q[0] * v[0] + q[1] * v[1]) / r;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#acceleration(double[], double[])
+     */
+    public void acceleration(double[] q, double[] a) {
+
+        double r = Math.sqrt(q[0] * q[0] + q[1] * q[1]);
+        double spring = (2 * k / m) * (r - r0) / r;
+
+        a[0] = -spring * q[0];
+        a[1] = g - spring * q[1];
+    }
+
+    /* (non-Javadoc)
+     * @see edu.umaine.cs.pendulums.SeparableSystem#energy(double[], double[])
+     */
+    public double energy(double[] q, double[] v) {
+
+        double r = Math.sqrt(q[0] * q[0] + q[1] * q[1]);
+
+        return .5 * m * (v[0] * v[0] + v[1] * v[1]) - m * g * q[1] + k
+                * (r - r0) * (r - r0);
     }
 
 }
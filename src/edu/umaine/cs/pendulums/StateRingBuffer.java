@@ -0,0 +1,370 @@
+package edu.umaine.cs.pendulums;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ring of preallocated state frames that a single producer, the
+ * integrator, publishes into without taking any locks. Each frame holds a
+ * timestamp and a copy of the state vector and is numbered with a sequence
+ * number that starts at 0.
+ *
+ * <p>
+ * Renderers, recorders and plotters read the frames through their own
+ * {@link Consumer}, each at its own pace from its own thread. A consumer with
+ * the {@link Policy#DROP_OLDEST} policy never holds the producer up; if it
+ * falls more than a ring's worth of frames behind, the frames it missed are
+ * skipped and counted. A consumer with the {@link Policy#BACKPRESSURE} policy
+ * sees every frame, and the producer waits for it when the ring is full. The
+ * wait ends if the producer's thread is interrupted, so a stalled consumer
+ * can't keep the producer from being cancelled.
+ * </p>
+ *
+ * <p>
+ * Frames are read like a sequence lock: the frame is copied and the copy is
+ * thrown away if the producer may have started overwriting it in the
+ * meantime. Since the frame after the newest is always about to be
+ * overwritten, only the newest <code>capacity - 1</code> frames can be read
+ * by consumers that drop frames.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class StateRingBuffer {
+
+    /**
+     * What happens when a consumer can't keep up with the producer.
+     */
+    public enum Policy {
+
+        /**
+         * The producer overwrites frames the consumer hasn't read yet, and
+         * the consumer skips ahead to the oldest frame still in the ring.
+         */
+        DROP_OLDEST,
+
+        /**
+         * The producer waits until the consumer has read the frame it is
+         * about to overwrite.
+         */
+        BACKPRESSURE
+    }
+
+    /**
+     * How long the producer is parked at a time (ns) while waiting for a
+     * consumer with backpressure
+     */
+    static final long WAIT = 100000;
+
+    private int capacity;
+
+    private int mask;
+
+    private int numberOfVariables;
+
+    private double[][] states;
+
+    private double[] timestamps;
+
+    /**
+     * The number of frames that have been published, which is also the
+     * sequence number of the next frame
+     */
+    private volatile long published;
+
+    /**
+     * The consumers with backpressure, replaced whenever one is added or
+     * closed
+     */
+    private volatile Consumer[] gating = new Consumer[0];
+
+    /**
+     * @param capacity
+     *            The number of frames in the ring, a power of 2
+     * @param numberOfVariables
+     *            The length of the state vectors
+     */
+    public StateRingBuffer(int capacity, int numberOfVariables) {
+        assert Integer.bitCount(capacity) == 1 : "requires: capacity = "
+                + capacity;
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.numberOfVariables = numberOfVariables;
+        this.states = new double[capacity][numberOfVariables];
+        this.timestamps = new double[capacity];
+    }
+
+    /**
+     * Copy a state into the next frame and make it visible to the consumers.
+     * Only one thread may publish. With a backpressure consumer this waits
+     * while the ring is full, until the consumer catches up or the thread is
+     * interrupted. The interrupt status is left set.
+     *
+     * @param timestamp
+     *            The time of the state
+     * @param state
+     *            The state, copied
+     * @return true iff the state was published, false if the thread was
+     *         interrupted while waiting
+     */
+    public boolean publish(double timestamp, double[] state) {
+
+        long sequence = published;
+
+        while (sequence - minimumGatingSequence() >= capacity) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            LockSupport.parkNanos(WAIT);
+        }
+
+        // A reader that sees any of the new values must also see that the
+        // old frame is gone
+        VarHandle.releaseFence();
+
+        int slot = (int) sequence & mask;
+        System.arraycopy(state, 0, states[slot], 0, numberOfVariables);
+        timestamps[slot] = timestamp;
+
+        published = sequence + 1;
+
+        return true;
+    }
+
+    /**
+     * @return The lowest sequence number a backpressure consumer still has
+     *         to read, or the next sequence number if there are none
+     */
+    private long minimumGatingSequence() {
+        long minimum = published;
+        for (Consumer consumer : gating) {
+            minimum = Math.min(minimum, consumer.next);
+        }
+        return minimum;
+    }
+
+    /**
+     * Copy a frame out of the ring.
+     *
+     * @param sequence
+     *            The sequence number of the frame
+     * @param out
+     *            Where the state is stored
+     * @return The timestamp of the frame, NaN if it hasn't been published or
+     *         has already been overwritten
+     */
+    public double read(long sequence, double[] out) {
+        return read(sequence, out, true);
+    }
+
+    /**
+     * @param validate
+     *            false if the frame can't be overwritten while it is read
+     */
+    private double read(long sequence, double[] out, boolean validate) {
+
+        long end = published;
+
+        if (sequence < 0 || sequence >= end
+                || (validate && end - sequence >= capacity)) {
+            return Double.NaN;
+        }
+
+        int slot = (int) sequence & mask;
+        System.arraycopy(states[slot], 0, out, 0, numberOfVariables);
+        double timestamp = timestamps[slot];
+
+        // Finish reading the frame before checking it wasn't overwritten
+        VarHandle.acquireFence();
+
+        if (validate && published - sequence >= capacity) {
+            return Double.NaN;
+        }
+
+        return timestamp;
+    }
+
+    /**
+     * @param policy
+     *            What happens when the consumer falls behind
+     * @return A consumer that starts with the next frame to be published
+     */
+    public Consumer newConsumer(Policy policy) {
+
+        Consumer consumer = new Consumer(policy, published);
+
+        if (policy == Policy.BACKPRESSURE) {
+            synchronized (this) {
+                Consumer[] more = Arrays.copyOf(gating, gating.length + 1);
+                more[gating.length] = consumer;
+                gating = more;
+            }
+        }
+
+        return consumer;
+    }
+
+    /**
+     * @return The number of frames that have been published
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return The number of frames in the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The length of the state vectors
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    /**
+     * Reads the frames of a {@link StateRingBuffer} in order. A consumer must
+     * only be used by one thread at a time.
+     */
+    public class Consumer {
+
+        private Policy policy;
+
+        /**
+         * The sequence number of the next frame to read
+         */
+        private volatile long next;
+
+        private long last = -1;
+
+        private double timestamp = Double.NaN;
+
+        private long dropped;
+
+        private Consumer(Policy policy, long next) {
+            this.policy = policy;
+            this.next = next;
+        }
+
+        /**
+         * Read the next frame.
+         *
+         * @param out
+         *            Where the state is stored
+         * @return true iff there was a new frame
+         */
+        public boolean poll(double[] out) {
+
+            while (true) {
+
+                long end = published;
+
+                if (next >= end) {
+                    return false;
+                }
+
+                if (policy == Policy.DROP_OLDEST && end - next >= capacity) {
+                    dropped += end - capacity + 1 - next;
+                    next = end - capacity + 1;
+                }
+
+                double t = read(next, out, policy == Policy.DROP_OLDEST);
+
+                if (!Double.isNaN(t)) {
+                    last = next;
+                    timestamp = t;
+                    next++;
+                    return true;
+                }
+
+                // Overwritten while being read, move on to the next one
+                dropped++;
+                next++;
+            }
+        }
+
+        /**
+         * Skip to the newest frame and read it. The frames skipped over are
+         * not counted as dropped.
+         *
+         * @param out
+         *            Where the state is stored
+         * @return true iff there was a new frame
+         */
+        public boolean pollLatest(double[] out) {
+
+            while (true) {
+
+                long end = published;
+
+                if (next >= end) {
+                    return false;
+                }
+
+                double t = read(end - 1, out);
+
+                if (!Double.isNaN(t)) {
+                    last = end - 1;
+                    timestamp = t;
+                    next = end;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Stop reading. The producer no longer waits for a backpressure
+         * consumer once it is closed.
+         */
+        public void close() {
+            synchronized (StateRingBuffer.this) {
+                int index = Arrays.asList(gating).indexOf(this);
+                if (index >= 0) {
+                    Consumer[] fewer = new Consumer[gating.length - 1];
+                    System.arraycopy(gating, 0, fewer, 0, index);
+                    System.arraycopy(gating, index + 1, fewer, index,
+                            fewer.length - index);
+                    gating = fewer;
+                }
+            }
+        }
+
+        /**
+         * @return What happens when this consumer falls behind
+         */
+        public Policy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * @return The sequence number of the frame read last, -1 if none has
+         *         been read
+         */
+        public long getSequence() {
+            return last;
+        }
+
+        /**
+         * @return The timestamp of the frame read last, NaN if none has been
+         *         read
+         */
+        public double getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return The number of frames that were overwritten before this
+         *         consumer could read them
+         */
+        public long getDropped() {
+            return dropped;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * A headless numerical integrator for an {@link XPSYS}. A stepper operates on
+ * a state array owned by the caller and advances it in place. Implementations
+ * allocate all of their scratch space when they are constructed and never
+ * touch Java3D or Swing, so they can be used for batch jobs as well as by the
+ * real-time driver in {@link RK4SYS}.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public interface Stepper {
+
+    /**
+     * Advance the state <code>x</code> by a single time step.
+     * 
+     * @param x
+     *            The current values, updated in place
+     * @param dt
+     *            The time step
+     */
+    public void step(double[] x, double dt);
+
+    /**
+     * Advance the state <code>x</code> by <code>n</code> time steps of size
+     * <code>dt</code>.
+     * 
+     * @param x
+     *            The current values, updated in place
+     * @param dt
+     *            The time step
+     * @param n
+     *            The number of steps to take, n >= 0
+     */
+    public void stepN(double[] x, double dt, int n);
+
+    /**
+     * Advance the state <code>x</code> from <code>time</code> to
+     * <code>endTime</code> using steps no larger than <code>dt</code>. The
+     * last step is shortened so that the end time is hit exactly.
+     * 
+     * @param x
+     *            The current values, updated in place
+     * @param time
+     *            The time that <code>x</code> corresponds to
+     * @param endTime
+     *            The time to advance to
+     * @param dt
+     *            The largest time step to take
+     * @return The time the state now corresponds to, <code>endTime</code>
+     *         unless a terminal {@link EventFunction} stopped the integration
+     *         earlier
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt);
+
+    /**
+     * Forget anything kept from the previous call about the derivative at the
+     * state, because the function changed outside of the stepper, e.g. one of
+     * its parameters was set.
+     */
+    public void invalidate();
+
+    /**
+     * @return The number of variables in the state arrays this stepper
+     *         operates on
+     */
+    public int getNumberOfVariables();
+
+}
@@ -0,0 +1,317 @@
+package edu.umaine.cs.pendulums;
+
+import java.util.logging.Logger;
+
+/**
+ * Switches between the explicit {@link DormandPrince45} and the implicit
+ * {@link Rosenbrock23} as the problem becomes stiff and non-stiff again, in
+ * the spirit of LSODA. While explicit, the Dormand-Prince stiffness test
+ * decides when the steps are being limited by stability rather than accuracy.
+ * While implicit, the spectral radius of the Jacobian is estimated by power
+ * iteration and the explicit method is switched back to once it would be
+ * stable at steps several times larger than the ones the implicit method is
+ * taking.
+ *
+ * <p>
+ * The problem is checked after every interval of length <code>dt</code>, so
+ * a switch never happens in the middle of one. Each switch is logged and the
+ * simulated and wall clock time spent in each mode is recorded.
+ * </p>
+ *
+ * @author Mark Royer
+ *
+ */
+public class SwitchingStepper implements Stepper {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(SwitchingStepper.class.getName());
+
+    /**
+     * The number of checks in a row that must find the problem non-stiff
+     * before switching back to the explicit method
+     */
+    static final int NON_STIFF_CHECKS = 15;
+
+    /**
+     * How many times larger than the implicit method's steps the explicit
+     * method's stable steps must be before switching back. An implicit step
+     * costs more than an explicit one, and without the margin a problem on
+     * the edge of stiffness switches back and forth every few steps.
+     */
+    static final double SWITCH_BACK_FACTOR = 5;
+
+    /**
+     * The number of power iterations used to estimate the spectral radius
+     */
+    static final int POWER_ITERATIONS = 10;
+
+    private DormandPrince45 explicit;
+
+    private Rosenbrock23 implicit;
+
+    private int numberOfVariables;
+
+    private boolean stiff;
+
+    private int nonStiffChecks;
+
+    private int switches;
+
+    private double explicitTime;
+
+    private double implicitTime;
+
+    private long explicitNanos;
+
+    private long implicitNanos;
+
+    private double[] v, jv;
+
+    /**
+     * Create a stepper that starts with the explicit method.
+     *
+     * @param xpsysFunction
+     *            Functor of the problem to solve
+     * @param numberOfVariables
+     *            The length of the state arrays that will be stepped
+     * @param absoluteTolerance
+     *            Allowed absolute error per step, > 0
+     * @param relativeTolerance
+     *            Allowed relative error per step, >= 0
+     */
+    public SwitchingStepper(XPSYS xpsysFunction, int numberOfVariables,
+            double absoluteTolerance, double relativeTolerance) {
+        this.numberOfVariables = numberOfVariables;
+        this.explicit = new DormandPrince45(xpsysFunction, numberOfVariables,
+                absoluteTolerance, relativeTolerance);
+        this.implicit = new Rosenbrock23(xpsysFunction, numberOfVariables,
+                absoluteTolerance, relativeTolerance);
+        this.v = new double[numberOfVariables];
+        this.jv = new double[numberOfVariables];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#step(double[], double)
+     */
+    public void step(double[] x, double dt) {
+        advanceTo(x, 0, dt, dt);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#stepN(double[], double, int)
+     */
+    public void stepN(double[] x, double dt, int n) {
+        advanceTo(x, 0, dt * n, dt);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#advanceTo(double[], double, double,
+     *      double)
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt) {
+
+        while (time < endTime) {
+
+            double end = Math.min(endTime, time + dt);
+            long start = System.nanoTime();
+
+            if (stiff) {
+                implicit.advanceTo(x, time, end, dt);
+                implicitNanos += System.nanoTime() - start;
+                implicitTime += end - time;
+            } else {
+                explicit.advanceTo(x, time, end, dt);
+                explicitNanos += System.nanoTime() - start;
+                explicitTime += end - time;
+            }
+
+            time = end;
+
+            checkStiffness(x[0], dt);
+        }
+
+        return endTime;
+    }
+
+    /**
+     * Decide whether to switch methods.
+     *
+     * @param time
+     *            The current time, for the log
+     * @param dt
+     *            The largest step size
+     */
+    private void checkStiffness(double time, double dt) {
+
+        if (!stiff) {
+            if (explicit.isStiff()) {
+                switchMethod(time, "h * lambda = "
+                        + explicit.getStiffnessEstimate());
+            }
+            return;
+        }
+
+        double h = Math.min(dt, implicit.getStepSize());
+        double hLambda = h * spectralRadius(implicit.getJacobian());
+
+        if (hLambda * SWITCH_BACK_FACTOR < DormandPrince45.STABILITY_LIMIT) {
+            nonStiffChecks++;
+            if (nonStiffChecks >= NON_STIFF_CHECKS) {
+                switchMethod(time, "h * lambda = " + hLambda);
+            }
+        } else {
+            nonStiffChecks = 0;
+        }
+    }
+
+    private void switchMethod(double time, String reason) {
+
+        stiff = !stiff;
+        nonStiffChecks = 0;
+        switches++;
+
+        // Start over with fresh step size and stiffness estimates
+        if (stiff) {
+            implicit.reset();
+        } else {
+            explicit.reset();
+        }
+
+        LOGGER.info("Switched to "
+                + (stiff ? implicit : explicit).getClass().getSimpleName()
+                + " at time " + time + " (" + reason + ")");
+    }
+
+    /**
+     * Estimate the largest absolute eigenvalue of a matrix by power
+     * iteration on its square, which also converges for the complex
+     * conjugate pairs of an oscillation.
+     *
+     * @param j
+     *            The matrix
+     * @return An estimate of its spectral radius
+     */
+    double spectralRadius(double[][] j) {
+
+        int n = numberOfVariables;
+
+        // Avoid starting orthogonal to the dominant direction
+        for (int i = 0; i < n; i++) {
+            v[i] = 1 / Math.sqrt(n) + 0.01 * i;
+        }
+
+        double growth = 0;
+
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+
+            multiply(j, v, jv);
+            multiply(j, jv, v);
+
+            double norm = 0;
+            for (int i = 0; i < n; i++) {
+                norm += v[i] * v[i];
+            }
+            growth = Math.sqrt(norm);
+
+            if (growth == 0) {
+                return 0;
+            }
+
+            for (int i = 0; i < n; i++) {
+                v[i] /= growth;
+            }
+        }
+
+        return Math.sqrt(growth);
+    }
+
+    private void multiply(double[][] a, double[] in, double[] out) {
+        for (int i = 0; i < numberOfVariables; i++) {
+            double sum = 0;
+            for (int k = 0; k < numberOfVariables; k++) {
+                sum += a[i][k] * in[k];
+            }
+            out[i] = sum;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#invalidate()
+     */
+    public void invalidate() {
+        explicit.invalidate();
+        implicit.invalidate();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umaine.cs.pendulums.Stepper#getNumberOfVariables()
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    /**
+     * @return true iff the implicit method is in use
+     */
+    public boolean isStiff() {
+        return stiff;
+    }
+
+    /**
+     * @return The number of times the method has been switched
+     */
+    public int getSwitches() {
+        return switches;
+    }
+
+    /**
+     * @return The simulated time integrated with the explicit method
+     */
+    public double getExplicitTime() {
+        return explicitTime;
+    }
+
+    /**
+     * @return The simulated time integrated with the implicit method
+     */
+    public double getImplicitTime() {
+        return implicitTime;
+    }
+
+    /**
+     * @return The wall clock time spent in the explicit method (ns)
+     */
+    public long getExplicitNanos() {
+        return explicitNanos;
+    }
+
+    /**
+     * @return The wall clock time spent in the implicit method (ns)
+     */
+    public long getImplicitNanos() {
+        return implicitNanos;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "switches:" + switches + "," + " explicit:" + explicitTime
+                + " (" + explicitNanos / 1000000 + "ms)," + " implicit:"
+                + implicitTime + " (" + implicitNanos / 1000000 + "ms)";
+    }
+
+}
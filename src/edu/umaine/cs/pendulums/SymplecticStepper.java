@@ -0,0 +1,180 @@
+package edu.umaine.cs.pendulums;
+
+/**
+ * Symplectic integrators for models in the separable form q'' = a(q). The
+ * basic method is the Stormer-Verlet (velocity Verlet) step, and higher order
+ * methods are built by composing Verlet steps of different lengths as
+ * described by Yoshida, construction of higher order symplectic integrators,
+ * 1990. Unlike {@link RK4Stepper} the energy error of these methods stays
+ * bounded, so much larger time steps can be used for long runs.
+ * 
+ * @author Mark Royer
+ */
+public class SymplecticStepper implements Stepper {
+
+    /**
+     * Second order Stormer-Verlet, one force evaluation per step.
+     */
+    public static final double[] VERLET = { 1 };
+
+    /**
+     * Fourth order Yoshida composition, three force evaluations per step.
+     */
+    public static final double[] YOSHIDA4 = {
+            1 / (2 - Math.cbrt(2)),
+            -Math.cbrt(2) / (2 - Math.cbrt(2)),
+            1 / (2 - Math.cbrt(2)) };
+
+    private SeparableSystem system;
+
+    private int numberOfVariables;
+
+    private double[] weights;
+
+    private double[] q;
+
+    private double[] v;
+
+    private double[] a;
+
+    /**
+     * Create a new symplectic stepper.
+     * 
+     * @param system
+     *            The separable form of the model
+     * @param numberOfVariables
+     *            The length of the {@link XPSYS} state arrays
+     * @param weights
+     *            The composition weights, either {@link #VERLET} or
+     *            {@link #YOSHIDA4}
+     */
+    public SymplecticStepper(SeparableSystem system, int numberOfVariables,
+            double[] weights) {
+        this.system = system;
+        this.numberOfVariables = numberOfVariables;
+        this.weights = weights;
+
+        int n = system.getNumberOfPositions();
+        this.q = new double[n];
+        this.v = new double[n];
+        this.a = new double[n];
+    }
+
+    /**
+     * Create the best stepper for the given model. Models that provide a
+     * {@link SeparableSystem} get a symplectic stepper, every other model
+     * falls back to {@link RK4Stepper}.
+     * 
+     * @param model
+     *            How the pendulum behaves
+     * @param numberOfVariables
+     *            The length of the model's state arrays
+     * @param weights
+     *            The composition weights to use if the model is separable
+     * @return A stepper for the model
+     */
+    public static Stepper create(PendulumBehavior model,
+            int numberOfVariables, double[] weights) {
+        SeparableSystem separable = model.getSeparableForm();
+        if (separable == null) {
+            return new RK4Stepper(model, numberOfVariables);
+        }
+        return new SymplecticStepper(separable, numberOfVariables, weights);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#step(double[], double)
+     */
+    public void step(double[] x, double dt) {
+        stepN(x, dt, 1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#stepN(double[], double, int)
+     */
+    public void stepN(double[] x, double dt, int n) {
+
+        if (n <= 0) {
+            return;
+        }
+
+        system.toCanonical(x, q, v);
+        system.acceleration(q, a);
+
+        for (int k = 0; k < n; k++) {
+            for (int s = 0; s < weights.length; s++) {
+                verlet(weights[s] * dt);
+            }
+        }
+
+        system.fromCanonical(q, v, x);
+        x[0] += dt * n;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#advanceTo(double[], double, double,
+     *      double)
+     */
+    public double advanceTo(double[] x, double time, double endTime, double dt) {
+
+        if (time >= endTime) {
+            return endTime;
+        }
+
+        // Equal steps keep the method symplectic and time symmetric
+        int n = (int) Math.ceil((endTime - time) / dt);
+        stepN(x, (endTime - time) / n, n);
+
+        return endTime;
+    }
+
+    /**
+     * A single kick-drift-kick step. The acceleration at the current positions
+     * must already be in <code>a</code>, and on return <code>a</code> holds
+     * the acceleration at the new positions.
+     * 
+     * @param h
+     *            The step size
+     */
+    private void verlet(double h) {
+
+        int n = q.length;
+        double h2 = .5 * h;
+
+        for (int i = 0; i < n; i++) {
+            v[i] += h2 * a[i];
+            q[i] += h * v[i];
+        }
+
+        system.acceleration(q, a);
+
+        for (int i = 0; i < n; i++) {
+            v[i] += h2 * a[i];
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#invalidate()
+     */
+    public void invalidate() {
+        // Nothing is kept between calls
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see edu.umaine.cs.pendulums.Stepper#getNumberOfVariables()
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+}
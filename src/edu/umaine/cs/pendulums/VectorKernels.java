@@ -0,0 +1,157 @@
+package edu.umaine.cs.pendulums;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the ensemble right hand sides using the JDK Vector API.
+ * Each kernel handles as many whole vectors of members as fit in [from, to)
+ * and returns where it stopped, leaving the remaining members to the scalar
+ * loop of the ensemble.
+ * 
+ * <p>
+ * This class must only be loaded after
+ * {@link PendulumEnsemble#isVectorApiAvailable()} has returned true.
+ * </p>
+ * 
+ * @author Mark Royer
+ * 
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final double g = PendulumEnsemble.g;
+
+    private VectorKernels() {
+    }
+
+    /**
+     * @return The number of members evaluated per vector
+     */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * The right hand side of {@link SimpleDoublePendulumEnsemble}.
+     * 
+     * @return The first member that was not evaluated
+     */
+    static int simpleDoublePendulum(double[][] x, double[][] f, double[] r1,
+            double[] r2, double[] m1, double[] m2, int from, int to) {
+
+        double[] theta1 = x[0], omega1 = x[1], theta2 = x[2], omega2 = x[3];
+
+        int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+
+        for (; i < upper; i += SPECIES.length()) {
+
+            DoubleVector t1 = DoubleVector.fromArray(SPECIES, theta1, i);
+            DoubleVector t2 = DoubleVector.fromArray(SPECIES, theta2, i);
+            DoubleVector w1 = DoubleVector.fromArray(SPECIES, omega1, i);
+            DoubleVector w2 = DoubleVector.fromArray(SPECIES, omega2, i);
+            DoubleVector la = DoubleVector.fromArray(SPECIES, r1, i);
+            DoubleVector lb = DoubleVector.fromArray(SPECIES, r2, i);
+            DoubleVector ma = DoubleVector.fromArray(SPECIES, m1, i);
+            DoubleVector mb = DoubleVector.fromArray(SPECIES, m2, i);
+
+            DoubleVector s1 = t1.lanewise(VectorOperators.SIN);
+            DoubleVector c1 = t1.lanewise(VectorOperators.COS);
+            DoubleVector s2 = t2.lanewise(VectorOperators.SIN);
+            DoubleVector c2 = t2.lanewise(VectorOperators.COS);
+
+            DoubleVector sd = s1.mul(c2).sub(c1.mul(s2));
+            DoubleVector cd = c1.mul(c2).add(s1.mul(s2));
+
+            DoubleVector m = ma.mul(2).add(mb);
+            DoubleVector den = m.sub(mb.mul(cd.mul(cd).mul(2).sub(1)));
+            DoubleVector w1Squared = w1.mul(w1);
+            DoubleVector w2Squared = w2.mul(w2);
+
+            DoubleVector a1 = m.mul(-g).mul(s1)
+                    .sub(mb.mul(g).mul(sd.mul(c2).sub(cd.mul(s2))))
+                    .sub(sd.mul(2).mul(mb).mul(
+                            w2Squared.mul(lb).add(w1Squared.mul(la).mul(cd))))
+                    .div(la.mul(den));
+
+            DoubleVector total = ma.add(mb);
+            DoubleVector a2 = sd.mul(2).mul(
+                    w1Squared.mul(la).mul(total).add(c1.mul(g).mul(total))
+                            .add(w2Squared.mul(lb).mul(mb).mul(cd))).div(
+                    lb.mul(den));
+
+            w1.intoArray(f[0], i);
+            a1.intoArray(f[1], i);
+            w2.intoArray(f[2], i);
+            a2.intoArray(f[3], i);
+        }
+
+        return i;
+    }
+
+    /**
+     * The right hand side of {@link SpringDoublePendulumEnsemble}.
+     * 
+     * @return The first member that was not evaluated
+     */
+    static int springDoublePendulum(double[][] x, double[][] f, double[] k1,
+            double[] k2, double[] r01, double[] r02, double[] m1,
+            double[] m2, int from, int to) {
+
+        int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+
+        for (; i < upper; i += SPECIES.length()) {
+
+            DoubleVector r1 = DoubleVector.fromArray(SPECIES, x[0], i);
+            DoubleVector t1 = DoubleVector.fromArray(SPECIES, x[1], i);
+            DoubleVector r2 = DoubleVector.fromArray(SPECIES, x[2], i);
+            DoubleVector t2 = DoubleVector.fromArray(SPECIES, x[3], i);
+            DoubleVector r1dot = DoubleVector.fromArray(SPECIES, x[4], i);
+            DoubleVector w1 = DoubleVector.fromArray(SPECIES, x[5], i);
+            DoubleVector r2dot = DoubleVector.fromArray(SPECIES, x[6], i);
+            DoubleVector w2 = DoubleVector.fromArray(SPECIES, x[7], i);
+            DoubleVector ma = DoubleVector.fromArray(SPECIES, m1, i);
+            DoubleVector mb = DoubleVector.fromArray(SPECIES, m2, i);
+
+            DoubleVector s1 = t1.lanewise(VectorOperators.SIN);
+            DoubleVector c1 = t1.lanewise(VectorOperators.COS);
+            DoubleVector s2 = t2.lanewise(VectorOperators.SIN);
+            DoubleVector c2 = t2.lanewise(VectorOperators.COS);
+
+            DoubleVector cd = c1.mul(c2).add(s1.mul(s2));
+            DoubleVector sd = c1.mul(s2).sub(s1.mul(c2));
+
+            DoubleVector stretch1 = DoubleVector.fromArray(SPECIES, k1, i).mul(
+                    r1.sub(DoubleVector.fromArray(SPECIES, r01, i)));
+            DoubleVector stretch2 = DoubleVector.fromArray(SPECIES, k2, i).mul(
+                    r2.sub(DoubleVector.fromArray(SPECIES, r02, i)));
+
+            DoubleVector a1 = cd.mul(stretch2).add(w1.mul(w1).mul(ma).mul(r1))
+                    .sub(stretch1).add(c1.mul(g).mul(ma)).div(ma);
+            DoubleVector b1 = sd.mul(stretch2).sub(s1.mul(g).mul(ma))
+                    .sub(r1dot.mul(w1).mul(ma).mul(2)).div(ma.mul(r1));
+            DoubleVector a2 = ma.add(mb).neg().mul(stretch2)
+                    .add(w2.mul(w2).mul(ma).mul(mb).mul(r2))
+                    .add(cd.mul(mb).mul(stretch1)).div(ma.mul(mb));
+            DoubleVector b2 = sd.mul(stretch1)
+                    .add(r2dot.mul(w2).mul(ma).mul(2)).neg()
+                    .div(ma.mul(r2));
+
+            r1dot.intoArray(f[0], i);
+            w1.intoArray(f[1], i);
+            r2dot.intoArray(f[2], i);
+            w2.intoArray(f[3], i);
+            a1.intoArray(f[4], i);
+            b1.intoArray(f[5], i);
+            a2.intoArray(f[6], i);
+            b2.intoArray(f[7], i);
+        }
+
+        return i;
+    }
+
+}
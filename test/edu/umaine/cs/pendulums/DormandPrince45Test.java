@@ -0,0 +1,227 @@
+/**
+ * 
+ */
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the adaptive Dormand-Prince integrator.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class DormandPrince45Test {
+
+    /**
+     * x'' = -x with x(0) = 1, x'(0) = 0, time in x[0].
+     */
+    private XPSYS oscillator = new XPSYS() {
+
+        public void xpsys(double[] x, double[] f) {
+            f[0] = 1;
+            f[1] = x[2];
+            f[2] = -x[1];
+        }
+
+        public void updateGeometry(double[] x) {
+            // Nothing to draw
+        }
+
+        public double[] getInitX() {
+            return new double[] { 0, 1, 0 };
+        }
+    };
+
+    /**
+     * Check a long run against the analytic solution and that it uses fewer
+     * evaluations than RK4 at dt = 0.003.
+     */
+    @Test
+    public void testLongRun() {
+
+        DormandPrince45 dp = new DormandPrince45(oscillator, 3, 1e-10, 1e-10);
+
+        double[] x = oscillator.getInitX();
+
+        double end = 100;
+
+        dp.advanceTo(x, 0, end, end);
+
+        assertEquals(end, x[0], 1e-9);
+        assertEquals(Math.cos(end), x[1], 1e-7);
+        assertEquals(-Math.sin(end), x[2], 1e-7);
+
+        long rk4Evaluations = 4 * (long) (end / 0.003);
+        assertTrue(dp.toString(), dp.getEvaluations() * 5 < rk4Evaluations);
+        assertEquals(dp.getEvaluations(), 6 * (dp.getAcceptedSteps() + dp
+                .getRejectedSteps()) + 2);
+    }
+
+    /**
+     * Check that stepping by an output interval lands on the interval.
+     */
+    @Test
+    public void testStep() {
+
+        DormandPrince45 dp = new DormandPrince45(oscillator, 3, 1e-9, 1e-9);
+
+        double[] x = oscillator.getInitX();
+
+        for (int i = 0; i < 1000; i++) {
+            dp.step(x, 0.01);
+        }
+
+        assertEquals(10, x[0], 1e-9);
+        assertEquals(Math.cos(10), x[1], 1e-6);
+    }
+
+    /**
+     * The derivative at the end of one output interval must be reused at the
+     * start of the next, unless the state was changed in between or the
+     * stepper was invalidated.
+     */
+    @Test
+    public void testFirstSameAsLastAcrossCalls() {
+
+        DormandPrince45 dp = new DormandPrince45(oscillator, 3, 1e-9, 1e-9);
+
+        double[] x = oscillator.getInitX();
+
+        for (int i = 0; i < 100; i++) {
+            dp.step(x, 0.01);
+        }
+        assertEquals(6 * (dp.getAcceptedSteps() + dp.getRejectedSteps()) + 2,
+                dp.getEvaluations());
+
+        dp.invalidate();
+        dp.step(x, 0.01);
+        assertEquals(6 * (dp.getAcceptedSteps() + dp.getRejectedSteps()) + 3,
+                dp.getEvaluations());
+
+        x[2] += 0.1;
+        dp.step(x, 0.01);
+        assertEquals(6 * (dp.getAcceptedSteps() + dp.getRejectedSteps()) + 4,
+                dp.getEvaluations());
+    }
+
+    /**
+     * A sudden change in the solution should force rejected steps.
+     */
+    @Test
+    public void testRejection() {
+
+        XPSYS kick = new XPSYS() {
+
+            public void xpsys(double[] x, double[] f) {
+                f[0] = 1;
+                f[1] = x[0] > 1 ? -1000 * x[1] : 1;
+            }
+
+            public void updateGeometry(double[] x) {
+                // Nothing to draw
+            }
+
+            public double[] getInitX() {
+                return new double[] { 0, 0 };
+            }
+        };
+
+        DormandPrince45 dp = new DormandPrince45(kick, 2, 1e-8, 1e-8);
+
+        double[] x = kick.getInitX();
+        dp.advanceTo(x, 0, 2, 2);
+
+        assertTrue(dp.toString(), dp.getRejectedSteps() > 0);
+        assertEquals(0, x[1], 1e-6);
+    }
+
+    /**
+     * Upward zero crossings of cos t happen at 3pi/2 + 2 pi k. They should be
+     * found precisely with large steps and without extra evaluations.
+     */
+    @Test
+    public void testEvents() {
+
+        final List<Double> times = new ArrayList<Double>();
+
+        DormandPrince45 dp = new DormandPrince45(oscillator, 3, 1e-10, 1e-10);
+        dp.addEventFunction(new EventFunction() {
+
+            public double g(double[] x) {
+                return x[1];
+            }
+
+            public int getDirection() {
+                return RISING;
+            }
+
+            public boolean isTerminal() {
+                return false;
+            }
+
+            public void eventOccurred(double[] x) {
+                times.add(x[0]);
+            }
+        });
+
+        double[] x = oscillator.getInitX();
+        dp.advanceTo(x, 0, 50, 50);
+
+        assertEquals(8, times.size());
+        for (int k = 0; k < times.size(); k++) {
+            assertEquals(1.5 * Math.PI + 2 * Math.PI * k, times.get(k), 1e-9);
+        }
+
+        DormandPrince45 plain = new DormandPrince45(oscillator, 3, 1e-10,
+                1e-10);
+        plain.advanceTo(oscillator.getInitX(), 0, 50, 50);
+
+        assertEquals(plain.getEvaluations(), dp.getEvaluations());
+        assertEquals(Math.cos(50), x[1], 1e-7);
+    }
+
+    /**
+     * A terminal event should stop the integration just past the crossing
+     * and not be found again when the integration carries on.
+     */
+    @Test
+    public void testTerminalEvent() {
+
+        DormandPrince45 dp = new DormandPrince45(oscillator, 3, 1e-10, 1e-10);
+        dp.addEventFunction(new EventFunction() {
+
+            public double g(double[] x) {
+                return x[1];
+            }
+
+            public int getDirection() {
+                return FALLING;
+            }
+
+            public boolean isTerminal() {
+                return true;
+            }
+
+            public void eventOccurred(double[] x) {
+            }
+        });
+
+        double[] x = oscillator.getInitX();
+
+        double time = dp.advanceTo(x, 0, 10, 10);
+        assertEquals(Math.PI / 2, time, 1e-9);
+        assertEquals(time, x[0], 1e-12);
+        assertTrue(x[1] <= 0);
+
+        time = dp.advanceTo(x, time, 10, 10);
+        assertEquals(2.5 * Math.PI, time, 1e-9);
+    }
+
+}
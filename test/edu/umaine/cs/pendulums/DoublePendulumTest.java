@@ -3,6 +3,7 @@
  */
 package edu.umaine.cs.pendulums;
 
+import java.lang.management.ManagementFactory;
 import java.text.NumberFormat;
 
 import org.junit.Test;
@@ -10,6 +11,8 @@ import org.junit.Test;
 import edu.umaine.cs.pendulums.DoublePendulum;
 import edu.umaine.cs.pendulums.Pendulum;
 
+import com.sun.management.ThreadMXBean;
+
 import static org.junit.Assert.*;
 
 /**
@@ -171,4 +174,102 @@ public class DoublePendulumTest {
 
     }
 
+    /**
+     * A view that only sums what it is given, so the models can be drawn
+     * without a display.
+     */
+    private static class SummingView implements DoublePendulumView {
+
+        double sum;
+
+        public void setTopRodLength(double length) {
+            sum += length;
+        }
+
+        public void setBottomRodLength(double length) {
+            sum += length;
+        }
+
+        public void setTopRodAngle(double angle) {
+            sum += angle;
+        }
+
+        public void setBottomRodAngle(double angle) {
+            sum += angle;
+        }
+    }
+
+    /**
+     * Once warmed up, a frame of either double pendulum must not allocate
+     * anything: stepping, publishing the state, and drawing the geometry
+     * interpolated between the latest two states like the renderer does.
+     */
+    @Test
+    public void testUpdateAllocatesNothing() {
+
+        SummingView view = new SummingView();
+
+        SpringDoublePendulum spring = new SpringDoublePendulum(view);
+        spring.setRodAngle(0, 1);
+        assertEquals(0, allocatedPerRound(spring));
+
+        SimpleDoublePendulum simple = new SimpleDoublePendulum(view);
+        simple.setRodAngle(0, 1);
+        assertEquals(0, allocatedPerRound(simple));
+
+        assertFalse(view.sum == 0);
+    }
+
+    /**
+     * Updating the transforms of a real double pendulum every frame must not
+     * allocate anything either. Needs a display.
+     */
+    @Test
+    public void testGeometryAllocatesNothing() {
+
+        SpringDoublePendulum spring = new SpringDoublePendulum(
+                new DoublePendulum());
+        spring.setRodAngle(0, 1);
+        assertEquals(0, allocatedPerRound(spring));
+    }
+
+    /**
+     * @param model
+     *            The model to step and draw
+     * @return The bytes allocated by the last of several rounds of frames
+     */
+    private static long allocatedPerRound(PendulumBehavior model) {
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        RK4SYS simulation = new RK4SYS(model, 0, 0.001,
+                RK4SYS.RUNINDEFINATELY, 1);
+        FrameUpdateBehavior frames = new FrameUpdateBehavior(model,
+                simulation);
+        StateRingBuffer states = simulation.getStates();
+
+        double[] x = model.getInitX();
+        RK4Stepper stepper = new RK4Stepper(model, x.length);
+
+        long allocated = 0;
+
+        for (int round = 0; round < 5; round++) {
+
+            long before = threads.getThreadAllocatedBytes(thread);
+
+            for (int i = 0; i < 10000; i++) {
+                stepper.step(x, 0.001);
+                states.publish(x[0], x);
+                frames.updateFrame();
+            }
+
+            // The first rounds may allocate while the code is compiled
+            allocated = threads.getThreadAllocatedBytes(thread) - before;
+        }
+
+        return allocated;
+    }
+
 }
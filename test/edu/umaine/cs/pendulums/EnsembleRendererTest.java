@@ -0,0 +1,77 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Shape3D;
+
+import org.junit.Test;
+
+/**
+ * Tests drawing an ensemble with geometry by reference.
+ *
+ * @author Mark Royer
+ *
+ */
+public class EnsembleRendererTest {
+
+    /**
+     * The rods and masses must be where the ensemble says the masses are,
+     * for both kinds of double pendulum.
+     */
+    @Test
+    public void testCoordinates() {
+
+        PendulumEnsemble[] ensembles = { new SimpleDoublePendulumEnsemble(3),
+                new SpringDoublePendulumEnsemble(3) };
+
+        for (PendulumEnsemble ensemble : ensembles) {
+
+            for (int member = 0; member < 3; member++) {
+                ensemble.setMember(member, new InitValues(30 * member, 90,
+                        2, 3, 1, 1, 100, 100));
+            }
+
+            EnsembleRenderer renderer = new EnsembleRenderer(ensemble);
+
+            GeometryArray rods = (GeometryArray) ((Shape3D) renderer.getBG()
+                    .getChild(0)).getGeometry();
+            GeometryArray masses = (GeometryArray) ((Shape3D) renderer
+                    .getBG().getChild(1)).getGeometry();
+            float[] rodCoordinates = rods.getCoordRefFloat();
+            float[] massCoordinates = masses.getCoordRefFloat();
+
+            assertEquals(12, rods.getVertexCount());
+            assertEquals(6, masses.getVertexCount());
+
+            double[] positions = new double[4];
+
+            for (int member = 0; member < 3; member++) {
+
+                ensemble.positions(member, positions);
+
+                // The inner mass hangs from the pivot by its rod
+                assertEquals(2, Math.hypot(positions[0], positions[1]), 1e-12);
+
+                for (int v = 0; v < 3; v++) {
+                    assertEquals(0, rodCoordinates[12 * member + v], 0);
+                }
+
+                float[] expected = { (float) positions[0],
+                        (float) positions[1], 0, (float) positions[0],
+                        (float) positions[1], 0, (float) positions[2],
+                        (float) positions[3], 0 };
+
+                for (int i = 0; i < 9; i++) {
+                    assertEquals(expected[i],
+                            rodCoordinates[12 * member + 3 + i], 0);
+                }
+                for (int i = 0; i < 6; i++) {
+                    assertEquals(expected[3 + i],
+                            massCoordinates[6 * member + i], 0);
+                }
+            }
+        }
+    }
+
+}
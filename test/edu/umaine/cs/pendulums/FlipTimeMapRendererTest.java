@@ -0,0 +1,60 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * @author Mark Royer
+ * 
+ */
+public class FlipTimeMapRendererTest {
+
+    /**
+     * Low energy pixels never flip, ones near the top flip quickly and a
+     * resumed render matches a fresh one.
+     */
+    @Test
+    public void testRender() throws Exception {
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "flipmap"
+                + System.nanoTime());
+
+        FlipTimeMapRenderer renderer = new FlipTimeMapRenderer(40, 30, 10);
+        renderer.setTileSize(16);
+        renderer.setTileDirectory(dir);
+
+        final int[] calls = { 0 };
+        renderer.setProgressListener(new FlipTimeMapRenderer.ProgressListener() {
+            public void tileFinished(int finished, int total) {
+                calls[0]++;
+                assertEquals(6, total);
+            }
+        });
+
+        float[] image = renderer.render();
+        assertEquals(6, calls[0]);
+
+        // Hanging straight down
+        assertEquals(10, image[15 * 40 + 20], 0);
+        // Both rods near the top
+        assertTrue(image[0] < 5);
+
+        // Throw away one tile and resume
+        File[] tiles = dir.listFiles();
+        assertEquals(6, tiles.length);
+        assertTrue(tiles[0].delete());
+
+        assertArrayEquals(image, renderer.render(), 0);
+
+        for (File tile : dir.listFiles()) {
+            tile.delete();
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,79 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the closed form Jacobians of the models against finite differences.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class JacobianTest {
+
+    private static final double TOLERANCE = 1e-5;
+
+    @Test
+    public void testSimplePendulum() {
+
+        SimplePendulum model = new SimplePendulum(null);
+        model.setRodLength(0, 3);
+
+        JacobianVerifier verifier = new JacobianVerifier(model, 7);
+        double error = verifier.check(new double[] { 0, -3, -3, -3, -3, -4,
+                -3 }, new double[] { 10, 3, 3, 3, 3, 4, 3 }, 100, 4);
+
+        assertTrue(message(verifier, error), error < TOLERANCE);
+    }
+
+    @Test
+    public void testSpringPendulum() {
+
+        SpringPendulum model = new SpringPendulum(null);
+        model.setK(0, 37);
+        model.setMass(0, 2.5);
+
+        JacobianVerifier verifier = new JacobianVerifier(model, 5);
+        double error = verifier.check(new double[] { 0, -4, 2, -3, -3 },
+                new double[] { 10, 4, 9, 3, 3 }, 100, 1);
+
+        assertTrue(message(verifier, error), error < TOLERANCE);
+    }
+
+    @Test
+    public void testSimpleDoublePendulum() {
+
+        SimpleDoublePendulum model = new SimpleDoublePendulum(null);
+        model.setMass(0, 2);
+        model.setMass(1, 0.7);
+
+        JacobianVerifier verifier = new JacobianVerifier(model, 5);
+        double error = verifier.check(new double[] { 0, -4, -3, -4, -3 },
+                new double[] { 10, 4, 3, 4, 3 }, 100, 2);
+
+        assertTrue(message(verifier, error), error < TOLERANCE);
+    }
+
+    @Test
+    public void testSpringDoublePendulum() {
+
+        SpringDoublePendulum model = new SpringDoublePendulum(null);
+        model.setK(0, 120);
+        model.setK(1, 80);
+        model.setMass(0, 1.5);
+        model.setMass(1, 3);
+
+        JacobianVerifier verifier = new JacobianVerifier(model, 9);
+        double error = verifier.check(new double[] { 0, 3, -4, 3, -4, -3, -3,
+                -3, -3 }, new double[] { 10, 7, 4, 7, 4, 3, 3, 3, 3 }, 100, 3);
+
+        assertTrue(message(verifier, error), error < TOLERANCE);
+    }
+
+    private static String message(JacobianVerifier verifier, double error) {
+        return "error " + error + " at [" + verifier.getWorstRow() + "]["
+                + verifier.getWorstColumn() + "]";
+    }
+
+}
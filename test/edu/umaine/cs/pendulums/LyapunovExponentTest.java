@@ -0,0 +1,72 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Mark Royer
+ * 
+ */
+public class LyapunovExponentTest {
+
+    /**
+     * Trajectories of x' = a x separate at exactly the rate a. The reference
+     * trajectory sits at the origin so the states stay small.
+     */
+    @Test
+    public void testExponentialGrowth() {
+
+        final double a = 0.7;
+
+        LyapunovExponent lyapunov = new LyapunovExponent(new XPSYS() {
+
+            public void xpsys(double[] x, double[] f) {
+                f[0] = 1;
+                f[1] = a * x[1];
+                f[2] = -a * x[2];
+            }
+
+            public void updateGeometry(double[] x) {
+            }
+
+            public double[] getInitX() {
+                return new double[] { 0, 1, 1 };
+            }
+        }, 3);
+
+        double exponent = lyapunov.compute(new double[] { 0, 0, 0 }, 0.01,
+                10, 10000, 1e-5);
+
+        assertEquals(a, exponent, 1e-2);
+        assertTrue(lyapunov.getRenormalizations() < 10000);
+    }
+
+    /**
+     * A double pendulum swinging gently is regular while one started near
+     * the top is chaotic, and the batch and single versions agree.
+     */
+    @Test
+    public void testDoublePendulum() {
+
+        InitValues[] points = { new InitValues(5, 5, 5, 5, 1, 1, 0, 0),
+                new InitValues(150, 150, 5, 5, 1, 1, 0, 0) };
+        double[] exponents = new double[points.length];
+
+        LyapunovExponent.computeBatch(new SimpleDoublePendulumEnsemble(4),
+                points, 0.005, 20, 2000, exponents);
+
+        assertTrue(exponents[0] < 0.05);
+        assertTrue(exponents[1] > 0.3);
+
+        SimpleDoublePendulum model = new SimpleDoublePendulum(null);
+        double[] x0 = { 0, Math.toRadians(150), 0, Math.toRadians(150), 0 };
+
+        double exponent = new LyapunovExponent(model, 5).compute(x0, 0.005,
+                20, 2000, 0);
+
+        assertEquals(exponents[1], exponent, 0.25 * exponents[1]);
+    }
+
+}
@@ -0,0 +1,123 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that the models hold their own state and run without a scene graph.
+ *
+ * @author Mark Royer
+ *
+ */
+public class ModelStateTest {
+
+    /**
+     * Edits are applied once and only the variables that were set change.
+     */
+    @Test
+    public void testApplyEdits() {
+
+        ModelState state = new ModelState(new double[] { 0, 1, 2 });
+
+        double[] x = { 5, 6, 7 };
+        assertFalse(state.applyEdits(x));
+
+        state.set(2, 3);
+        assertTrue(state.applyEdits(x));
+        assertEquals(5, x[0], 0);
+        assertEquals(6, x[1], 0);
+        assertEquals(3, x[2], 0);
+        assertFalse(state.applyEdits(x));
+
+        assertEquals(3, state.get(2), 0);
+        assertEquals(1, state.getInitial()[1], 0);
+    }
+
+    /**
+     * Values set on models without a view must be where their simulations
+     * start from, and drawing them must do nothing.
+     */
+    @Test
+    public void testInitialStateWithoutView() {
+
+        SimpleDoublePendulum simple = new SimpleDoublePendulum(null);
+        simple.setRodAngle(0, 1);
+        simple.setRodAngle(1, 2);
+        simple.setRodLength(1, 3);
+
+        double[] x = simple.getInitX();
+        assertEquals(1, x[1], 0);
+        assertEquals(2, x[3], 0);
+        assertEquals(8, simple.getTotalLength(), 0);
+        simple.updateGeometry(x);
+
+        // A new length must reach a running simulation as a change
+        simple.applyEdits(x);
+        simple.setRodLength(0, 6);
+        assertTrue(simple.applyEdits(x));
+
+        SpringDoublePendulum spring = new SpringDoublePendulum(null);
+        spring.setRodLength(0, 4);
+        spring.setRodAngle(1, 0.5);
+
+        x = spring.getInitX();
+        assertEquals(4, x[1], 0);
+        assertEquals(0.5, x[4], 0);
+        spring.updateGeometry(x);
+
+        SimplePendulum single = new SimplePendulum(null);
+        single.setRodLength(0, 2);
+        single.setRodAngle(0, Math.PI / 2);
+
+        x = single.getInitX();
+        assertEquals(2, x[1], 1e-12);
+        assertEquals(0, x[3], 1e-12);
+        assertEquals(Math.PI / 2, x[5], 0);
+        single.updateGeometry(x);
+        single.analyticSolution(1);
+
+        SpringPendulum springSingle = new SpringPendulum(null);
+        springSingle.setRodAngle(0, 1);
+        springSingle.updateGeometry(springSingle.getInitX());
+    }
+
+    /**
+     * An angle set while a simulation is running must be applied before its
+     * next step.
+     */
+    @Test
+    public void testEditWhileRunning() throws InterruptedException {
+
+        SimpleDoublePendulum pendulum = new SimpleDoublePendulum(null);
+
+        RK4SYS simulation = new RK4SYS(pendulum, 0, 1e-3,
+                RK4SYS.RUNINDEFINATELY, 1);
+        simulation.setWarp(true);
+        simulation.pause();
+
+        Thread thread = new Thread(simulation);
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(50);
+
+        pendulum.setRodAngle(1, 1);
+        simulation.singleStep();
+        Thread.sleep(50);
+
+        StateRingBuffer states = simulation.getStates();
+        double[] x = new double[5];
+        states.read(states.getPublished() - 1, x);
+
+        // One step from rest moves the angle by much less than this
+        assertEquals(0, x[1], 1e-3);
+        assertEquals(1, x[3], 1e-3);
+
+        simulation.requestToFinish();
+        thread.join(250);
+        assertFalse(thread.isAlive());
+    }
+
+}
@@ -0,0 +1,91 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the multirate integrator on the double spring pendulum.
+ *
+ * @author Mark Royer
+ *
+ */
+public class MultirateStepperTest {
+
+    /**
+     * The fast right hand side must agree with the full one.
+     */
+    @Test
+    public void testFastXpsys() {
+
+        SpringDoublePendulum model = new SpringDoublePendulum(null);
+        model.setK(0, 1000);
+        model.setK(1, 300);
+        model.setMass(0, 2);
+        model.setMass(1, 0.5);
+
+        Random random = new Random(3);
+        double[] x = new double[9];
+        double[] f = new double[9];
+        double[] fast = new double[9];
+
+        for (int sample = 0; sample < 100; sample++) {
+
+            for (int i = 1; i < 9; i++) {
+                x[i] = 4 * random.nextDouble() - 2;
+            }
+            x[1] += 5;
+            x[3] += 5;
+
+            model.xpsys(x, f);
+            model.fastXpsys(x, fast);
+
+            for (int i = 1; i < 9; i++) {
+                if (model.isFast(i)) {
+                    assertEquals(f[i], fast[i], 1e-9 * Math.abs(f[i]) + 1e-12);
+                }
+            }
+        }
+    }
+
+    /**
+     * With stiff springs four sub steps per step should be as accurate as
+     * RK4 with the sub step size, for a quarter of the full evaluations.
+     */
+    @Test
+    public void testStiffSprings() {
+
+        SpringDoublePendulum model = new SpringDoublePendulum(null);
+        model.setK(0, 100000);
+        model.setK(1, 100000);
+
+        double[] x = { 0, 5, 1, 5, 0.5, 0, 0, 0, 0 };
+        double[] rk4 = x.clone();
+        double[] reference = x.clone();
+
+        new DormandPrince45(model, 9, 1e-12, 1e-12).advanceTo(reference, 0,
+                2, 0.01);
+
+        new RK4Stepper(model, 9).advanceTo(rk4, 0, 2, 0.0005);
+
+        MultirateStepper multirate = new MultirateStepper(model, 9, 4);
+        multirate.advanceTo(x, 0, 2, 0.002);
+
+        assertEquals(2, x[0], 1e-12);
+
+        double rk4Error = 0, error = 0;
+        for (int i = 1; i < 9; i++) {
+            rk4Error = Math.max(rk4Error, Math.abs(rk4[i] - reference[i]));
+            error = Math.max(error, Math.abs(x[i] - reference[i]));
+        }
+
+        assertTrue("error = " + error + ", RK4 error = " + rk4Error,
+                error < 2 * rk4Error);
+        assertEquals(4000, multirate.getEvaluations());
+        assertEquals(16000, multirate.getFastEvaluations());
+    }
+
+}
@@ -0,0 +1,79 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.umaine.cs.pendulums.ParameterSweep.Range;
+
+/**
+ * @author Mark Royer
+ * 
+ */
+public class ParameterSweepTest {
+
+    /**
+     * Points should be decoded with the inner angle varying fastest.
+     */
+    @Test
+    public void testGet() {
+
+        ParameterSweep sweep = new ParameterSweep(new Range(0, 90, 4),
+                new Range(10, 20, 3), Range.of(5), new Range(1, 2, 2), Range
+                        .of(1), Range.of(1), Range.of(100), Range.of(100));
+
+        assertEquals(24, sweep.size());
+
+        InitValues v = sweep.get(4 * 3 + 4 + 2);
+        assertEquals(60, v.getA1(), 0);
+        assertEquals(15, v.getA2(), 0);
+        assertEquals(2, v.getL2(), 0);
+
+        int n = 0;
+        for (InitValues i : sweep) {
+            assertEquals(sweep.get(n).toString(), i.toString());
+            n++;
+        }
+        assertEquals(24, n);
+    }
+
+    /**
+     * Every point should be reported once and in order, with a partial last
+     * batch, and only the pendulums started upside down should flip.
+     */
+    @Test
+    public void testRun() {
+
+        ParameterSweep sweep = new ParameterSweep(new Range(0, 170, 18),
+                new Range(0, 170, 18), Range.of(5), Range.of(5), Range.of(1),
+                Range.of(1), Range.of(0), Range.of(0));
+
+        final long[] next = { 0 };
+        final boolean[] flipped = new boolean[(int) sweep.size()];
+
+        sweep.run(new SimpleDoublePendulumEnsemble(100), 5, 0.001, 10,
+                new ParameterSweep.Listener() {
+
+                    public void result(ParameterSweep.Result result) {
+                        assertEquals(next[0]++, result.getIndex());
+                        assertEquals(5, result.getFinalState()[0], 1e-9);
+                        assertTrue(result.getEnergyError() < 1e-6);
+                        assertTrue(result.getMaxInnerAngle() >= Math
+                                .toRadians(result.getValues().getA1()) - 1e-12);
+                        flipped[(int) result.getIndex()] = !Double
+                                .isNaN(result.getFlipTime());
+                    }
+                });
+
+        assertEquals(sweep.size(), next[0]);
+
+        // Small swings stay below
+        assertFalse(flipped[0]);
+        assertFalse(flipped[18 + 1]);
+        // Both rods almost upside down
+        assertTrue(flipped[18 * 18 - 1]);
+    }
+
+}
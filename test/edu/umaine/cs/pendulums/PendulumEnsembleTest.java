@@ -0,0 +1,179 @@
+/**
+ * 
+ */
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Checks that the ensembles follow the same equations as the single pendulum
+ * models. The models are used without a view, so nothing is drawn.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class PendulumEnsembleTest {
+
+    /**
+     * Compare the derivatives of every member with the model's.
+     * 
+     * @param ensemble
+     *            The ensemble to check
+     * @param model
+     *            The model with the same parameters as every member
+     */
+    private void checkDerivatives(PendulumEnsemble ensemble, XPSYS model) {
+
+        int n = ensemble.getNumberOfVariables();
+        double[][] f = new double[n][ensemble.size()];
+
+        ensemble.derivatives(ensemble.getState(), f, 0, ensemble.size());
+
+        double[] x = new double[n + 1];
+        double[] expected = new double[n + 1];
+
+        for (int i = 0; i < ensemble.size(); i++) {
+            ensemble.getMemberState(i, x);
+            model.xpsys(x, expected);
+            for (int v = 0; v < n; v++) {
+                assertEquals(expected[v + 1], f[v][i],
+                        1e-12 * (1 + Math.abs(expected[v + 1])));
+            }
+        }
+    }
+
+    /**
+     * The rigid double pendulum.
+     */
+    @Test
+    public void testSimpleDoublePendulum() {
+
+        SimpleDoublePendulum model = new SimpleDoublePendulum(null);
+        model.setMass(0, 2);
+        model.setMass(1, 3);
+
+        SimpleDoublePendulumEnsemble ensemble = new SimpleDoublePendulumEnsemble(
+                100);
+
+        for (int i = 0; i < ensemble.size(); i++) {
+            ensemble.setMember(i, new InitValues(3.6 * i - 180, 7.2 * i, 5, 5,
+                    2, 3, 0, 0));
+            ensemble.getVariable(1)[i] = Math.sin(i);
+            ensemble.getVariable(3)[i] = Math.cos(i);
+        }
+
+        checkDerivatives(ensemble, model);
+    }
+
+    /**
+     * The double pendulum with spring rods.
+     */
+    @Test
+    public void testSpringDoublePendulum() {
+
+        SpringDoublePendulum model = new SpringDoublePendulum(null);
+        model.setMass(0, 2);
+        model.setMass(1, 3);
+        model.setK(0, 40);
+        model.setK(1, 70);
+
+        SpringDoublePendulumEnsemble ensemble = new SpringDoublePendulumEnsemble(
+                100);
+
+        for (int i = 0; i < ensemble.size(); i++) {
+            ensemble.setMember(i, new InitValues(3.6 * i - 180, 7.2 * i, 5, 5,
+                    2, 3, 40, 70));
+            ensemble.getVariable(0)[i] = 5 + Math.sin(i);
+            ensemble.getVariable(2)[i] = 5 + Math.cos(i);
+            for (int v = 4; v < 8; v++) {
+                ensemble.getVariable(v)[i] = Math.sin(i * v);
+            }
+        }
+
+        checkDerivatives(ensemble, model);
+    }
+
+    /**
+     * Stepping the ensemble should match stepping each member on its own.
+     */
+    @Test
+    public void testStep() {
+
+        SimpleDoublePendulum model = new SimpleDoublePendulum(null);
+
+        SimpleDoublePendulumEnsemble ensemble = new SimpleDoublePendulumEnsemble(
+                1000);
+
+        for (int i = 0; i < ensemble.size(); i++) {
+            ensemble.setMember(i, new InitValues(0.36 * i - 180, 90, 5, 5, 1,
+                    1, 0, 0));
+        }
+
+        double[] x = new double[5];
+        ensemble.getMemberState(777, x);
+
+        new EnsembleStepper(ensemble).stepN(0.003, 1000);
+        new RK4Stepper(model, 5).stepN(x, 0.003, 1000);
+
+        double[] member = new double[5];
+        ensemble.getMemberState(777, member);
+
+        assertEquals(3, ensemble.getTime(), 1e-9);
+        for (int v = 0; v < 5; v++) {
+            assertEquals(x[v], member[v], 1e-9);
+        }
+    }
+
+    /**
+     * The parallel runner should give bit-identical results however many
+     * threads it uses, without the ensemble's vector kernels being turned off
+     * by hand.
+     */
+    @Test
+    public void testParallelDeterminism() {
+
+        double[][] expected = null;
+
+        for (int threads = 1; threads <= 4; threads++) {
+
+            SpringDoublePendulumEnsemble ensemble = new SpringDoublePendulumEnsemble(
+                    5000);
+            boolean vectorized = ensemble.isVectorized();
+            for (int i = 0; i < ensemble.size(); i++) {
+                ensemble.setMember(i, new InitValues(90 + i * 1e-3, 90, 5, 5,
+                        1, 1, 20, 20));
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelEnsembleRunner runner = new ParallelEnsembleRunner(
+                    ensemble, pool, 1000);
+            assertTrue(runner.isDeterministic());
+            runner.advanceTo(1, 0.003);
+            pool.shutdown();
+
+            assertEquals(vectorized, ensemble.isVectorized());
+
+            assertEquals(1024, runner.getChunkSize());
+            assertEquals(5, runner.getChunkCount());
+            assertEquals(1, ensemble.getTime(), 0);
+
+            if (expected == null) {
+                expected = ensemble.getState();
+            } else {
+                for (int v = 0; v < expected.length; v++) {
+                    for (int i = 0; i < ensemble.size(); i++) {
+                        assertEquals(Double.doubleToLongBits(expected[v][i]),
+                                Double.doubleToLongBits(ensemble
+                                        .getVariable(v)[i]));
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Mark Royer
+ * 
+ */
+public class PoincareSectionTest {
+
+    /**
+     * Spring pendulums started from a mix of states. The first is pushed hard
+     * enough to go around the top, the others only swing.
+     */
+    private double[][] states = { { 0, 0.5, 6, 3, 0 }, { 0, 1, 7, 2, 1 },
+            { 0, -2, 5, 0, 0 }, { 0, 0.2, 8, 0, -1 } };
+
+    /**
+     * Every point should be on the section, theta = 0 modulo 2 pi with theta
+     * increasing.
+     */
+    @Test
+    public void testCrossings() throws Exception {
+
+        SpringPendulum model = new SpringPendulum(null);
+        PoincareSection section = new PoincareSection(model, 5, 1, 0,
+                EventFunction.RISING, true, 1, 3);
+
+        PointBuffer buffer = new PointBuffer();
+        long crossings = section.run(states[0], 200, buffer);
+
+        assertTrue(crossings > 10);
+        assertEquals(crossings, buffer.size());
+
+        for (int i = 0; i < buffer.size(); i++) {
+            assertEquals(0, Math.IEEEremainder(buffer.getU(i), 2 * Math.PI),
+                    1e-9);
+            assertTrue(buffer.getV(i) > 0);
+        }
+    }
+
+    /**
+     * Running the trajectories in parallel should find the same crossings as
+     * running them one at a time, and they should survive a trip through a
+     * file and a rasterizer.
+     */
+    @Test
+    public void testRunAll() throws Exception {
+
+        SpringPendulum model = new SpringPendulum(null);
+        PoincareSection section = new PoincareSection(model, 5, 1, 0,
+                EventFunction.RISING, true, 2, 4);
+
+        long expected = 0;
+        for (double[] x0 : states) {
+            expected += section.run(x0, 100, new PointBuffer());
+        }
+
+        File file = File.createTempFile("poincare", ".bin");
+        PointFileWriter writer = new PointFileWriter(file);
+        long crossings = section.runAll(states, 100, 3, writer);
+        writer.close();
+
+        assertEquals(expected, crossings);
+        assertEquals(crossings, writer.getCount());
+        assertEquals(8 * crossings, file.length());
+
+        ScatterRasterizer rasterizer = new ScatterRasterizer(64, 64, 0, 100,
+                -100, 100);
+        PointFileWriter.read(file, rasterizer);
+        assertEquals(crossings, rasterizer.getTotal());
+
+        file.delete();
+    }
+
+    /**
+     * More crossings than fit in a batch must reach the sink in full batches
+     * and a final partial one, all from a single integration.
+     */
+    @Test
+    public void testBatches() throws Exception {
+
+        // x'' = -10000 x, which crosses x = 0 rising 100 / (2 pi) times a
+        // second
+        XPSYS oscillator = new XPSYS() {
+
+            public void xpsys(double[] x, double[] f) {
+                f[0] = 1;
+                f[1] = x[2];
+                f[2] = -10000 * x[1];
+            }
+
+            public void updateGeometry(double[] x) {
+                // Nothing to draw
+            }
+
+            public double[] getInitX() {
+                return new double[] { 0, 1, 0 };
+            }
+        };
+
+        PoincareSection section = new PoincareSection(oscillator, 3, 1, 0,
+                EventFunction.RISING, false, 1, 2);
+
+        final List<Integer> batches = new ArrayList<Integer>();
+        long crossings = section.run(oscillator.getInitX(), 300,
+                new PointSink() {
+                    public void points(double[] uv, int count) {
+                        batches.add(count);
+                    }
+                });
+
+        // The first crossing is three quarters of a period in
+        double period = 2 * Math.PI / 100;
+        assertEquals((long) ((300 - 0.75 * period) / period) + 1, crossings);
+        assertEquals(2, batches.size());
+        assertEquals(PoincareSection.BATCH, (int) batches.get(0));
+        assertEquals(crossings - PoincareSection.BATCH, (long) batches.get(1));
+    }
+
+}
@@ -0,0 +1,156 @@
+package edu.umaine.cs.pendulums;
+
+import static edu.umaine.cs.pendulums.SimulationFixtures.TIMEOUT;
+import static edu.umaine.cs.pendulums.SimulationFixtures.awaitGate;
+import static edu.umaine.cs.pendulums.SimulationFixtures.awaitParked;
+import static edu.umaine.cs.pendulums.SimulationFixtures.awaitPublished;
+import static edu.umaine.cs.pendulums.SimulationFixtures.start;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests controlling a running simulation from another thread.
+ *
+ * @author Mark Royer
+ *
+ */
+public class RK4SYSTest {
+
+    /**
+     * While paused the simulation must only take the single steps it is asked
+     * for, and it must finish promptly when asked to while paused.
+     */
+    @Test
+    public void testPauseAndSingleStep() throws InterruptedException {
+
+        RK4SYS simulation = new RK4SYS(new SimulationFixtures.Oscillator(),
+                0, 1e-3, RK4SYS.RUNINDEFINATELY, 1);
+        simulation.setWarp(true);
+
+        Thread thread = start(simulation);
+
+        simulation.pause();
+        awaitParked(thread);
+
+        StateRingBuffer states = simulation.getStates();
+        long published = states.getPublished();
+
+        for (int i = 0; i < 3; i++) {
+            simulation.singleStep();
+        }
+        awaitPublished(states, published + 3);
+        awaitParked(thread);
+        assertEquals(published + 3, states.getPublished());
+
+        simulation.requestToFinish();
+        thread.join(TIMEOUT);
+        assertFalse(thread.isAlive());
+    }
+
+    /**
+     * A single step requested before resuming must not fire at the next
+     * pause.
+     */
+    @Test
+    public void testResumeDropsSingleSteps() throws InterruptedException {
+
+        SimulationFixtures.GatedOscillator model = new SimulationFixtures.GatedOscillator();
+        RK4SYS simulation = new RK4SYS(model, 0, 1e-3,
+                RK4SYS.RUNINDEFINATELY, 1);
+        simulation.pause();
+
+        Thread thread = start(simulation);
+        awaitParked(thread);
+
+        StateRingBuffer states = simulation.getStates();
+        assertEquals(1, states.getPublished());
+
+        // Hold the first step at the gate while a second one is requested
+        model.closed = true;
+        simulation.singleStep();
+        awaitGate(model);
+
+        simulation.singleStep();
+        simulation.resume();
+        simulation.pause();
+        model.closed = false;
+
+        awaitPublished(states, 2);
+        awaitParked(thread);
+        assertEquals(2, states.getPublished());
+
+        simulation.requestToFinish();
+        thread.join(TIMEOUT);
+        assertFalse(thread.isAlive());
+    }
+
+    /**
+     * Single steps must not take a bounded simulation past its end.
+     */
+    @Test
+    public void testSingleStepLimit() throws InterruptedException {
+
+        RK4SYS bounded = new RK4SYS(new SimulationFixtures.Oscillator(), 0,
+                1e-3, 3, 1);
+        bounded.pause();
+
+        Thread thread = start(bounded);
+        awaitParked(thread);
+
+        for (int i = 0; i < 5; i++) {
+            bounded.singleStep();
+        }
+        thread.join(TIMEOUT);
+
+        assertFalse(thread.isAlive());
+        assertEquals(1 + 3, bounded.getStates().getPublished());
+    }
+
+    /**
+     * Resuming a paused simulation should not wait for a polling interval.
+     */
+    @Test
+    public void testResume() throws InterruptedException {
+
+        long[] latencies = RunControlBenchmark.resumeLatencies(10);
+
+        for (long latency : latencies) {
+            assertTrue("latency = " + latency, latency > 0
+                    && latency < 50000000);
+        }
+    }
+
+    /**
+     * Alpha must belong to the state it is asked for, not to whichever state
+     * was published last.
+     */
+    @Test
+    public void testAlphaPairedWithState() throws InterruptedException {
+
+        RK4SYS simulation = new RK4SYS(new SimulationFixtures.Oscillator(),
+                0, 1e-3, RK4SYS.RUNINDEFINATELY, 1);
+        simulation.pause();
+
+        Thread thread = start(simulation);
+        awaitParked(thread);
+
+        StateRingBuffer states = simulation.getStates();
+        assertEquals(1, states.getPublished());
+        assertEquals(0, simulation.getAlpha(0), 0);
+
+        simulation.singleStep();
+        awaitPublished(states, 2);
+        awaitParked(thread);
+
+        assertEquals(1, simulation.getAlpha(0), 0);
+        assertEquals(1, simulation.getAlpha(1), 0);
+
+        simulation.requestToFinish();
+        thread.join(TIMEOUT);
+        assertFalse(thread.isAlive());
+    }
+
+}
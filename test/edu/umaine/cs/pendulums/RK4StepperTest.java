@@ -0,0 +1,75 @@
+/**
+ * 
+ */
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests the headless RK4 stepper against a problem with a known solution.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class RK4StepperTest {
+
+    /**
+     * x'' = -x with x(0) = 1, x'(0) = 0. The state layout follows the
+     * pendulum models with the time in x[0].
+     */
+    private XPSYS oscillator = new XPSYS() {
+
+        public void xpsys(double[] x, double[] f) {
+            f[0] = 1;
+            f[1] = x[2];
+            f[2] = -x[1];
+        }
+
+        public void updateGeometry(double[] x) {
+            // Nothing to draw
+        }
+
+        public double[] getInitX() {
+            return new double[] { 0, 1, 0 };
+        }
+    };
+
+    /**
+     * Check that stepping follows the analytic solution.
+     */
+    @Test
+    public void testStepN() {
+
+        RK4Stepper stepper = new RK4Stepper(oscillator, 3);
+
+        double[] x = oscillator.getInitX();
+
+        stepper.stepN(x, 0.001, 1000);
+
+        assertEquals(1.0, x[0], 1e-12);
+        assertEquals(Math.cos(1.0), x[1], 1e-10);
+        assertEquals(-Math.sin(1.0), x[2], 1e-10);
+    }
+
+    /**
+     * Check that advancing hits the end time exactly even when it is not a
+     * multiple of the time step.
+     */
+    @Test
+    public void testAdvanceTo() {
+
+        RK4Stepper stepper = new RK4Stepper(oscillator, 3);
+
+        double[] x = oscillator.getInitX();
+
+        double t = stepper.advanceTo(x, 0, 2.0005, 0.003);
+
+        assertEquals(2.0005, t, 0);
+        assertEquals(2.0005, x[0], 1e-12);
+        assertEquals(Math.cos(2.0005), x[1], 1e-9);
+        assertEquals(-Math.sin(2.0005), x[2], 1e-9);
+    }
+
+}
@@ -0,0 +1,96 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests pacing simulated time against the wall clock.
+ *
+ * @author Mark Royer
+ *
+ */
+public class RealTimePacerTest {
+
+    /**
+     * Cheap steps should keep up with the target ratio, even at far more than
+     * a thousand steps per second.
+     */
+    @Test
+    public void testRatio() {
+
+        RealTimePacer pacer = new RealTimePacer(1e-4, 2);
+
+        long start = System.nanoTime();
+        long steps = 0;
+
+        pacer.start();
+
+        while (System.nanoTime() - start < 2 * RealTimePacer.WINDOW) {
+            int due = pacer.stepsDue();
+            steps += due;
+            pacer.stepped(due);
+            pacer.waitForNextStep();
+        }
+
+        double seconds = (System.nanoTime() - start) * 1e-9;
+
+        assertEquals(2 * seconds, steps * 1e-4, 0.1 * seconds);
+        assertEquals(2, pacer.getAchievedRatio(), 0.2);
+        assertEquals(0, pacer.getDroppedTime(), 0);
+    }
+
+    /**
+     * A stall must not be made up for with a burst of steps.
+     */
+    @Test
+    public void testStall() throws InterruptedException {
+
+        RealTimePacer pacer = new RealTimePacer(0.01, 1);
+
+        pacer.start();
+        Thread.sleep(1000);
+
+        int due = pacer.stepsDue();
+
+        assertTrue("due = " + due, due <= RealTimePacer.MAX_LAG / 0.01);
+        assertTrue(pacer.getDroppedTime() >= 1 - RealTimePacer.MAX_LAG);
+    }
+
+    /**
+     * Warp mode should run far ahead of the wall clock, and leaving it should
+     * go back to the ratio without a burst or a wait.
+     */
+    @Test
+    public void testWarp() throws InterruptedException {
+
+        RealTimePacer pacer = new RealTimePacer(1e-3, 1);
+        pacer.setWarp(true);
+
+        long start = System.nanoTime();
+        long steps = 0;
+
+        while (System.nanoTime() - start < 100000000) {
+            int due = pacer.stepsDue();
+            steps += due;
+            pacer.stepped(due);
+            pacer.waitForNextStep();
+        }
+
+        assertTrue("steps = " + steps, steps * 1e-3 > 1);
+        assertEquals(1, pacer.getAlpha(), 0);
+
+        pacer.setWarp(false);
+
+        assertEquals(0, pacer.stepsDue());
+        pacer.stepped(0);
+
+        Thread.sleep(100);
+
+        int due = pacer.stepsDue();
+        assertTrue("due = " + due, due >= 90 && due <= 150);
+        assertEquals(0, pacer.getDroppedTime(), 0);
+    }
+
+}
@@ -0,0 +1,84 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the Rosenbrock integrator for stiff problems.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class Rosenbrock23Test {
+
+    /**
+     * The spring pendulum with the stiff preset values makes RK4 blow up at
+     * the simulation's time step, but Rosenbrock should stay on the solution
+     * found by RK4 with a tiny step.
+     */
+    @Test
+    public void testStiffSpring() {
+
+        SpringPendulum model = new SpringPendulum(null);
+        model.setK(0, 800000);
+        model.setMass(0, 1.5);
+
+        double[] x = { 0, 1, 6, 0, 0 };
+        double[] rk4 = x.clone();
+        double[] reference = x.clone();
+
+        Rosenbrock23 rosenbrock = new Rosenbrock23(model, 5, 1e-4, 1e-4);
+        rosenbrock.advanceTo(x, 0, 2, 0.003);
+
+        new RK4Stepper(model, 5).advanceTo(rk4, 0, 2, 0.003);
+        assertTrue(Double.isNaN(rk4[1]));
+
+        new RK4Stepper(model, 5).advanceTo(reference, 0, 2, 1e-5);
+
+        assertEquals(reference[1], x[1], 1e-3);
+        assertEquals(reference[3], x[3], 1e-3);
+        assertEquals(6, x[2], 1e-3);
+        assertTrue(rosenbrock.toString(), rosenbrock.getAcceptedSteps() < 1000);
+    }
+
+    /**
+     * Halving the tolerance on a non-stiff problem should reduce the error.
+     */
+    @Test
+    public void testAccuracy() {
+
+        XPSYS oscillator = new XPSYS() {
+
+            public void xpsys(double[] x, double[] f) {
+                f[0] = 1;
+                f[1] = x[2];
+                f[2] = -x[1];
+            }
+
+            public void updateGeometry(double[] x) {
+            }
+
+            public double[] getInitX() {
+                return new double[] { 0, 1, 0 };
+            }
+        };
+
+        double previous = Double.POSITIVE_INFINITY;
+
+        for (double tolerance = 1e-4; tolerance > 1e-9; tolerance /= 10) {
+
+            double[] x = oscillator.getInitX();
+            new Rosenbrock23(oscillator, 3, tolerance, tolerance).advanceTo(x,
+                    0, 10, 10);
+
+            double error = Math.abs(x[1] - Math.cos(10));
+            assertTrue(error + " " + previous, error < previous);
+            previous = error;
+        }
+
+        assertTrue(previous < 1e-5);
+    }
+
+}
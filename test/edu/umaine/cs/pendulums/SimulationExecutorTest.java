@@ -0,0 +1,131 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests running, cancelling and waiting for simulations.
+ *
+ * @author Mark Royer
+ *
+ */
+public class SimulationExecutorTest {
+
+    /**
+     * An oscillator that notes the thread it is evaluated in, and can be made
+     * to hang without noticing interrupts
+     */
+    static class Hanging extends SimulationFixtures.Oscillator {
+
+        volatile Thread thread;
+
+        volatile boolean hang;
+
+        public void xpsys(double[] x, double[] f) {
+            thread = Thread.currentThread();
+            while (hang) {
+                Thread.yield();
+            }
+            super.xpsys(x, f);
+        }
+    }
+
+    private static RK4SYS simulation(XPSYS model) {
+        RK4SYS simulation = new RK4SYS(model, 0, 1e-3,
+                RK4SYS.RUNINDEFINATELY, 1);
+        simulation.setWarp(true);
+        return simulation;
+    }
+
+    /**
+     * Switching simulations rapidly must never leave more than one running,
+     * whether they were running or paused, and the worker thread should be
+     * reused.
+     */
+    @Test
+    public void testSwitching() throws InterruptedException {
+
+        SimulationExecutor executor = new SimulationExecutor();
+        Set<Thread> workers = new HashSet<Thread>();
+
+        for (int i = 0; i < 20; i++) {
+
+            Hanging model = new Hanging();
+            RK4SYS simulation = simulation(model);
+            if (i % 2 == 1) {
+                simulation.pause();
+            }
+
+            SimulationExecutor.Run run = executor.start(simulation);
+            Thread.sleep(10);
+
+            assertEquals(1, executor.getLiveRuns());
+            assertTrue(executor.cancelAll(250));
+            assertTrue(run.isFinished());
+            assertEquals(0, executor.getLiveRuns());
+
+            if (model.thread != null) {
+                workers.add(model.thread);
+            }
+        }
+
+        // A worker may not be back in the pool quite in time for the next
+        // simulation, but most should be reused
+        assertTrue("workers = " + workers.size(), workers.size() <= 3);
+
+        assertTrue(executor.shutdown(250));
+    }
+
+    /**
+     * A simulation that ignores being cancelled must be reported as still
+     * live once the deadline has passed.
+     */
+    @Test
+    public void testLeak() throws InterruptedException {
+
+        SimulationExecutor executor = new SimulationExecutor();
+
+        Hanging model = new Hanging();
+        SimulationExecutor.Run run = executor.start(simulation(model));
+        Thread.sleep(10);
+
+        model.hang = true;
+        Thread.sleep(10);
+
+        assertFalse(executor.cancelAll(50));
+        assertEquals(1, executor.getLiveRuns());
+
+        model.hang = false;
+
+        assertTrue(run.awaitFinish(1, TimeUnit.SECONDS));
+        assertEquals(0, executor.getLiveRuns());
+    }
+
+    /**
+     * A simulation held up by a consumer that stopped reading must still be
+     * cancelled.
+     */
+    @Test
+    public void testStalledConsumer() throws InterruptedException {
+
+        SimulationExecutor executor = new SimulationExecutor();
+
+        RK4SYS simulation = simulation(new SimulationFixtures.Oscillator());
+        StateRingBuffer states = simulation.getStates();
+        states.newConsumer(StateRingBuffer.Policy.BACKPRESSURE);
+
+        executor.start(simulation);
+        Thread.sleep(50);
+
+        assertEquals(states.getCapacity(), states.getPublished());
+        assertTrue(executor.cancelAll(250));
+    }
+
+}
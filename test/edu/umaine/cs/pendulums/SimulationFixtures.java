@@ -0,0 +1,129 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Models and waits shared by the tests that run simulations in threads of
+ * their own. The waits poll for a condition the test can observe and fail
+ * after {@link #TIMEOUT}, rather than sleeping for a fixed time.
+ *
+ * @author Mark Royer
+ *
+ */
+class SimulationFixtures {
+
+    /**
+     * The longest to wait for a simulation thread (ms)
+     */
+    static final long TIMEOUT = 5000;
+
+    /**
+     * A harmonic oscillator, so the steps themselves cost next to nothing
+     */
+    static class Oscillator implements XPSYS {
+
+        public void xpsys(double[] x, double[] f) {
+            f[0] = 1;
+            f[1] = x[2];
+            f[2] = -x[1];
+        }
+
+        public void updateGeometry(double[] x) {
+            // Nothing to draw
+        }
+
+        public double[] getInitX() {
+            return new double[] { 0, 1, 0 };
+        }
+    }
+
+    /**
+     * An oscillator whose evaluations wait while its gate is closed
+     */
+    static class GatedOscillator extends Oscillator {
+
+        volatile boolean closed;
+
+        volatile boolean waiting;
+
+        public void xpsys(double[] x, double[] f) {
+            while (closed) {
+                waiting = true;
+                Thread.yield();
+            }
+            waiting = false;
+            super.xpsys(x, f);
+        }
+    }
+
+    private SimulationFixtures() {
+    }
+
+    /**
+     * Run a simulation in a daemon thread, so a stuck simulation can't keep
+     * the tests from finishing.
+     *
+     * @param simulation
+     *            The simulation to run
+     * @return The thread running it
+     */
+    static Thread start(RK4SYS simulation) {
+        Thread thread = new Thread(simulation);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Wait until a paused simulation's thread is parked, after which it
+     * publishes nothing until it is woken up.
+     *
+     * @param thread
+     *            The simulation's thread
+     */
+    static void awaitParked(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("not parked: " + thread.getState());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Wait until a number of states have been published.
+     *
+     * @param states
+     *            Where the states are published
+     * @param count
+     *            The number of states to wait for
+     */
+    static void awaitPublished(StateRingBuffer states, long count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (states.getPublished() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("published " + states.getPublished() + " of " + count);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Wait until a gated oscillator is held at its gate.
+     *
+     * @param model
+     *            The oscillator
+     */
+    static void awaitGate(GatedOscillator model) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!model.waiting) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("never reached the gate");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests handing states from one thread to another through the ring.
+ *
+ * @author Mark Royer
+ *
+ */
+public class StateRingBufferTest {
+
+    /**
+     * A consumer that doesn't keep up skips to the oldest frame left and
+     * counts the ones it missed.
+     */
+    @Test
+    public void testDropOldest() {
+
+        StateRingBuffer ring = new StateRingBuffer(8, 3);
+        StateRingBuffer.Consumer consumer = ring
+                .newConsumer(StateRingBuffer.Policy.DROP_OLDEST);
+
+        double[] x = new double[3];
+        for (int i = 0; i < 20; i++) {
+            x[0] = i;
+            ring.publish(i, x);
+        }
+
+        assertTrue(consumer.poll(x));
+        assertEquals(13, consumer.getSequence());
+        assertEquals(13, consumer.getTimestamp(), 0);
+        assertEquals(13, x[0], 0);
+        assertEquals(13, consumer.getDropped());
+
+        assertTrue(consumer.pollLatest(x));
+        assertEquals(19, x[0], 0);
+        assertFalse(consumer.poll(x));
+
+        assertTrue(Double.isNaN(ring.read(12, x)));
+        assertEquals(15, ring.read(15, x), 0);
+    }
+
+    /**
+     * A consumer with backpressure on another thread must see every frame in
+     * order, and no frame may be torn.
+     */
+    @Test
+    public void testBackpressure() throws InterruptedException {
+
+        final StateRingBuffer ring = new StateRingBuffer(64, 5);
+        final StateRingBuffer.Consumer ordered = ring
+                .newConsumer(StateRingBuffer.Policy.BACKPRESSURE);
+        final StateRingBuffer.Consumer latest = ring
+                .newConsumer(StateRingBuffer.Policy.DROP_OLDEST);
+
+        final int frames = 20000;
+        final boolean[] ok = { true, true };
+
+        Thread reader = new Thread() {
+            public void run() {
+                double[] x = new double[5];
+                for (int expected = 0; expected < frames;) {
+                    if (ordered.poll(x)) {
+                        ok[0] &= x[0] == expected && x[4] == expected
+                                && ordered.getTimestamp() == expected;
+                        expected++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+
+        Thread sampler = new Thread() {
+            public void run() {
+                double[] x = new double[5];
+                double last = -1;
+                while (last < frames - 1) {
+                    if (latest.pollLatest(x)) {
+                        for (double value : x) {
+                            ok[1] &= value == x[0];
+                        }
+                        ok[1] &= x[0] > last;
+                        last = x[0];
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+
+        // Don't keep the tests from finishing if a thread gets stuck
+        reader.setDaemon(true);
+        sampler.setDaemon(true);
+        reader.start();
+        sampler.start();
+
+        double[] x = new double[5];
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(x, i);
+            ring.publish(i, x);
+        }
+
+        reader.join(10000);
+        sampler.join(10000);
+
+        assertFalse(reader.isAlive());
+        assertFalse(sampler.isAlive());
+        assertTrue("out of order", ok[0]);
+        assertTrue("torn", ok[1]);
+        assertEquals(0, ordered.getDropped());
+        assertEquals(frames, ring.getPublished());
+
+        // Once closed the producer no longer waits
+        ordered.close();
+        for (int i = 0; i < 100; i++) {
+            ring.publish(i, x);
+        }
+    }
+
+    /**
+     * A producer waiting for a backpressure consumer must give up when it is
+     * interrupted.
+     */
+    @Test
+    public void testInterruptWhileFull() throws InterruptedException {
+
+        final StateRingBuffer ring = new StateRingBuffer(4, 3);
+        ring.newConsumer(StateRingBuffer.Policy.BACKPRESSURE);
+
+        final boolean[] published = new boolean[5];
+
+        Thread producer = new Thread() {
+            public void run() {
+                double[] x = new double[3];
+                for (int i = 0; i < published.length; i++) {
+                    published[i] = ring.publish(i, x);
+                }
+            }
+        };
+        producer.setDaemon(true);
+        producer.start();
+
+        Thread.sleep(50);
+        assertTrue(producer.isAlive());
+
+        producer.interrupt();
+        producer.join(250);
+
+        assertFalse(producer.isAlive());
+        assertTrue(published[3]);
+        assertFalse(published[4]);
+        assertEquals(4, ring.getPublished());
+    }
+
+}
@@ -0,0 +1,98 @@
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Mark Royer
+ * 
+ */
+public class SwitchingStepperTest {
+
+    /**
+     * y' = -a(t) (y - cos t), which is only stiff while a is large for
+     * 2 <= t < 4.
+     */
+    private XPSYS partlyStiff = new XPSYS() {
+
+        public void xpsys(double[] x, double[] f) {
+            double a = x[0] >= 2 && x[0] < 4 ? 1e5 : 1;
+            f[0] = 1;
+            f[1] = -a * (x[1] - Math.cos(x[0]));
+        }
+
+        public void updateGeometry(double[] x) {
+        }
+
+        public double[] getInitX() {
+            return new double[] { 0, 1 };
+        }
+    };
+
+    /**
+     * The stepper should switch to the implicit method for the stiff part and
+     * back again afterwards.
+     */
+    @Test
+    public void testPartlyStiff() {
+
+        SwitchingStepper stepper = new SwitchingStepper(partlyStiff, 2, 1e-8,
+                1e-8);
+
+        double[] x = partlyStiff.getInitX();
+        stepper.advanceTo(x, 0, 10, 0.1);
+
+        assertEquals(stepper.toString(), 2, stepper.getSwitches());
+        assertFalse(stepper.isStiff());
+        assertTrue(stepper.toString(), stepper.getImplicitTime() > 1.5
+                && stepper.getImplicitTime() < 4);
+        assertEquals(10, stepper.getExplicitTime() + stepper.getImplicitTime(),
+                1e-9);
+
+        double[] reference = partlyStiff.getInitX();
+        new Rosenbrock23(partlyStiff, 2, 1e-10, 1e-10).advanceTo(reference, 0,
+                10, 0.01);
+
+        assertEquals(reference[1], x[1], 1e-6);
+    }
+
+    /**
+     * A gently swinging spring pendulum is never stiff.
+     */
+    @Test
+    public void testNonStiff() {
+
+        SpringPendulum model = new SpringPendulum(null);
+        SwitchingStepper stepper = new SwitchingStepper(model, 5, 1e-8, 1e-8);
+
+        double[] x = { 0, 0.5, 6, 0, 0 };
+        stepper.advanceTo(x, 0, 20, 0.003);
+
+        assertEquals(0, stepper.getSwitches());
+        assertEquals(0, stepper.getImplicitTime(), 0);
+    }
+
+    /**
+     * The stiff spring preset should be detected right away.
+     */
+    @Test
+    public void testStiffSpring() {
+
+        SpringPendulum model = new SpringPendulum(null);
+        model.setK(0, 800000);
+        model.setMass(0, 1.5);
+
+        SwitchingStepper stepper = new SwitchingStepper(model, 5, 1e-4, 1e-4);
+
+        double[] x = { 0, 1, 6, 0, 0 };
+        stepper.advanceTo(x, 0, 2, 0.003);
+
+        assertEquals(1, stepper.getSwitches());
+        assertTrue(stepper.isStiff());
+        assertTrue(stepper.getImplicitTime() > 1.9);
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * 
+ */
+package edu.umaine.cs.pendulums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the symplectic steppers on a pendulum written in separable form.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class SymplecticStepperTest {
+
+    /**
+     * theta'' = -sin(theta) with the state x = {t, theta, thetadot}.
+     */
+    private SeparableSystem pendulum = new SeparableSystem() {
+
+        public int getNumberOfPositions() {
+            return 1;
+        }
+
+        public void toCanonical(double[] x, double[] q, double[] v) {
+            q[0] = x[1];
+            v[0] = x[2];
+        }
+
+        public void fromCanonical(double[] q, double[] v, double[] x) {
+            x[1] = q[0];
+            x[2] = v[0];
+        }
+
+        public void acceleration(double[] q, double[] a) {
+            a[0] = -Math.sin(q[0]);
+        }
+
+        public double energy(double[] q, double[] v) {
+            return .5 * v[0] * v[0] - Math.cos(q[0]);
+        }
+    };
+
+    /**
+     * @param x
+     *            The state
+     * @return The energy of the state
+     */
+    private double energy(double[] x) {
+        return pendulum.energy(new double[] { x[1] }, new double[] { x[2] });
+    }
+
+    /**
+     * The energy error should stay small over a long run with a large step.
+     */
+    @Test
+    public void testBoundedEnergy() {
+
+        double[] x = { 0, 2.5, 0 };
+        double e0 = energy(x);
+
+        SymplecticStepper verlet = new SymplecticStepper(pendulum, 3,
+                SymplecticStepper.VERLET);
+        SymplecticStepper yoshida = new SymplecticStepper(pendulum, 3,
+                SymplecticStepper.YOSHIDA4);
+
+        double[] y = x.clone();
+
+        double maxVerlet = 0;
+        double maxYoshida = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            verlet.stepN(x, 0.05, 100);
+            yoshida.stepN(y, 0.05, 100);
+            maxVerlet = Math.max(maxVerlet, Math.abs(energy(x) - e0));
+            maxYoshida = Math.max(maxYoshida, Math.abs(energy(y) - e0));
+        }
+
+        assertEquals(5000, x[0], 1e-6);
+        assertTrue("verlet: " + maxVerlet, maxVerlet < 1e-2);
+        assertTrue("yoshida: " + maxYoshida, maxYoshida < 1e-4);
+    }
+
+    /**
+     * Halving the step should reduce the error of the fourth order method
+     * about sixteen times.
+     */
+    @Test
+    public void testYoshidaOrder() {
+
+        double[] reference = { 0, 1, 0 };
+        new RK4Stepper(new XPSYS() {
+
+            public void xpsys(double[] x, double[] f) {
+                f[0] = 1;
+                f[1] = x[2];
+                f[2] = -Math.sin(x[1]);
+            }
+
+            public void updateGeometry(double[] x) {
+                // Nothing to draw
+            }
+
+            public double[] getInitX() {
+                return null;
+            }
+        }, 3).advanceTo(reference, 0, 10, 1e-4);
+
+        SymplecticStepper yoshida = new SymplecticStepper(pendulum, 3,
+                SymplecticStepper.YOSHIDA4);
+
+        double[] coarse = { 0, 1, 0 };
+        yoshida.advanceTo(coarse, 0, 10, 0.1);
+
+        double[] fine = { 0, 1, 0 };
+        yoshida.advanceTo(fine, 0, 10, 0.05);
+
+        double ratio = Math.abs(coarse[1] - reference[1])
+                / Math.abs(fine[1] - reference[1]);
+
+        assertTrue("ratio: " + ratio, ratio > 12 && ratio < 20);
+    }
+
+}